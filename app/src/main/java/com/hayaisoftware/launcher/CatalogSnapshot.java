@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class stores the last known catalog of launchable activities in app-private storage, so
+ * it can be shown on a cold start without querying the {@link PackageManager}.
+ *
+ * The snapshot is a compact binary file holding the component, label and icon resource of each
+ * activity, with the last update time of its package. Labels depend on the locale, so a snapshot
+ * written in another locale is ignored.
+ */
+public final class CatalogSnapshot {
+
+    private static final String FILE_NAME = "catalog.bin";
+
+    private static final int MAGIC = 0x48434154;
+
+    private static final String TAG = "CatalogSnapshot";
+
+    /**
+     * The last update time of packages which couldn't be found.
+     */
+    private static final long UNKNOWN_UPDATE_TIME = -1L;
+
+    private static final int VERSION = 1;
+
+    private final File mFile;
+
+    public CatalogSnapshot(@NonNull final Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    private static void close(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                Log.w(TAG, "Unable to close the catalog snapshot.", e);
+            }
+        }
+    }
+
+    /**
+     * This method returns the last update time of a package, looking it up in the
+     * {@link PackageManager} only once per package.
+     *
+     * @param pm              The PackageManager to look the package up with.
+     * @param lastUpdateTimes The last update times already looked up, by package name.
+     * @param packageName     The name of the package.
+     * @return The last update time of the package.
+     */
+    public static long getLastUpdateTime(@NonNull final PackageManager pm,
+            @NonNull final Map<String, Long> lastUpdateTimes, @NonNull final String packageName) {
+        Long lastUpdateTime = lastUpdateTimes.get(packageName);
+
+        if (lastUpdateTime == null) {
+            try {
+                lastUpdateTime = pm.getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (final PackageManager.NameNotFoundException e) {
+                Log.v(TAG, "Package not found: " + packageName, e);
+                lastUpdateTime = UNKNOWN_UPDATE_TIME;
+            }
+
+            lastUpdateTimes.put(packageName, lastUpdateTime);
+        }
+
+        return lastUpdateTime;
+    }
+
+    /**
+     * This method reads the snapshot.
+     *
+     * @return The entries of the snapshot, {@code null} if there is no usable snapshot.
+     */
+    @Nullable
+    public List<Entry> read() {
+        List<Entry> entries = null;
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+
+            if (in.readInt() == MAGIC && in.readInt() == VERSION &&
+                    in.readUTF().equals(Locale.getDefault().toString())) {
+                final int count = in.readInt();
+                entries = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    final ComponentName component =
+                            new ComponentName(in.readUTF(), in.readUTF());
+                    final String label = in.readUTF();
+                    final int iconResource = in.readInt();
+                    final LaunchableActivity launchable =
+                            LaunchableActivity.getLaunchable(component, label, iconResource);
+
+                    entries.add(new Entry(launchable, in.readLong()));
+                }
+            }
+        } catch (final FileNotFoundException e) {
+            Log.v(TAG, "No catalog snapshot.", e);
+        } catch (final IOException e) {
+            Log.w(TAG, "Unable to read the catalog snapshot.", e);
+            entries = null;
+        } finally {
+            close(in);
+        }
+
+        return entries;
+    }
+
+    /**
+     * This method writes the snapshot, replacing the previous one atomically.
+     *
+     * This performs I/O and looks up packages, it must not be called from the UI thread.
+     *
+     * @param pm              The PackageManager to look up the last update time of packages
+     *                        with.
+     * @param launchables     The launchables of the catalog.
+     * @param lastUpdateTimes The last update times already looked up, by package name.
+     */
+    public void write(@NonNull final PackageManager pm,
+            @NonNull final Collection<? extends LaunchableActivity> launchables,
+            @NonNull final Map<String, Long> lastUpdateTimes) {
+        final File temporary = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        boolean written = false;
+
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeInt(launchables.size());
+
+            for (final LaunchableActivity launchable : launchables) {
+                final ComponentName component = launchable.getComponent();
+
+                out.writeUTF(component.getPackageName());
+                out.writeUTF(component.getClassName());
+                out.writeUTF(launchable.toString());
+                out.writeInt(launchable.getIconResource());
+                out.writeLong(getLastUpdateTime(pm, lastUpdateTimes,
+                        component.getPackageName()));
+            }
+
+            out.close();
+            out = null;
+            written = true;
+        } catch (final IOException e) {
+            Log.w(TAG, "Unable to write the catalog snapshot.", e);
+        } finally {
+            close(out);
+        }
+
+        if (!written || !temporary.renameTo(mFile)) {
+            Log.w(TAG, "Unable to replace the catalog snapshot.");
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    /**
+     * This class is an activity of a catalog snapshot.
+     */
+    public static final class Entry {
+
+        /**
+         * The last update time of launchables loaded from the {@link PackageManager} by this
+         * process, which are always current.
+         */
+        private static final long LOADED = Long.MIN_VALUE;
+
+        private final long mLastUpdateTime;
+
+        private final LaunchableActivity mLaunchable;
+
+        /**
+         * Constructor for launchables just loaded from the {@link PackageManager}.
+         *
+         * @param launchable The launchable.
+         */
+        public Entry(@NonNull final LaunchableActivity launchable) {
+            this(launchable, LOADED);
+        }
+
+        private Entry(final LaunchableActivity launchable, final long lastUpdateTime) {
+            mLaunchable = launchable;
+            mLastUpdateTime = lastUpdateTime;
+        }
+
+        public LaunchableActivity getLaunchable() {
+            return mLaunchable;
+        }
+
+        /**
+         * This method returns whether this entry is still current.
+         *
+         * @param lastUpdateTime The current last update time of the package of this entry.
+         * @return {@code true} if this entry can be used as is, {@code false} if the activity
+         * must be loaded again.
+         */
+        public boolean isCurrent(final long lastUpdateTime) {
+            return mLastUpdateTime == LOADED ||
+                    (mLastUpdateTime == lastUpdateTime && lastUpdateTime != UNKNOWN_UPDATE_TIME);
+        }
+    }
+}
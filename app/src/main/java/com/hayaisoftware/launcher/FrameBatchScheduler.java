@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs a batch on the UI thread at most once per frame.
+ *
+ * The owner queues its work from any thread, then calls {@link #schedule()}. The batch is posted
+ * once and handles all the work queued until it runs, so the work queued during a frame is
+ * handled by one message instead of one per item.
+ */
+public final class FrameBatchScheduler implements Runnable {
+
+    /**
+     * The minimum time between two runs of the batch, one frame at 60 fps.
+     */
+    private static final long FRAME_INTERVAL_MILLIS = 16L;
+
+    private final Runnable mBatch;
+
+    private final Handler mHandler;
+
+    /**
+     * Whether the batch has been posted and has not started yet.
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private volatile long mLastRun;
+
+    /**
+     * Constructor
+     *
+     * @param handler The handler of the UI thread.
+     * @param batch   The batch, handling all the work queued before it runs.
+     */
+    public FrameBatchScheduler(@NonNull final Handler handler, @NonNull final Runnable batch) {
+        mHandler = handler;
+        mBatch = batch;
+    }
+
+    /**
+     * This method removes the scheduled run of the batch. The batch isn't scheduled again until
+     * {@link #runNow()} is called.
+     */
+    public void cancel() {
+        mScheduled.set(true);
+        mHandler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        // Work queued from now on must be handled by another run.
+        mScheduled.set(false);
+        mLastRun = SystemClock.uptimeMillis();
+        mBatch.run();
+    }
+
+    /**
+     * This method runs the batch now, instead of waiting for the scheduled run.
+     *
+     * This must be called from the UI thread.
+     */
+    public void runNow() {
+        mHandler.removeCallbacks(this);
+        run();
+    }
+
+    /**
+     * This method schedules a run of the batch, a frame after the previous one, unless it is
+     * already scheduled. This can be called from any thread.
+     */
+    public void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            final long nextRun = mLastRun + FRAME_INTERVAL_MILLIS;
+
+            mHandler.postAtTime(this, Math.max(SystemClock.uptimeMillis(), nextRun));
+        }
+    }
+}
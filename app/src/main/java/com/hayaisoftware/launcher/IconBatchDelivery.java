@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class shows the icons loaded by {@link ImageLoadingTask}s in batches, on the UI thread.
+ *
+ * Loaded tasks are queued from any thread, and the queue is drained by a
+ * {@link FrameBatchScheduler} at most once per frame, so a screen of icons loaded together is
+ * shown in one message and one layout pass instead of one per icon.
+ */
+public final class IconBatchDelivery implements Runnable {
+
+    private final Queue<ImageLoadingTask> mLoaded = new ConcurrentLinkedQueue<>();
+
+    private final FrameBatchScheduler mScheduler;
+
+    /**
+     * Constructor
+     *
+     * @param handler The handler of the UI thread.
+     */
+    public IconBatchDelivery(@NonNull final Handler handler) {
+        mScheduler = new FrameBatchScheduler(handler, this);
+    }
+
+    /**
+     * This method drops the queued tasks and the scheduled delivery. No icon is shown
+     * afterwards.
+     */
+    public void cancel() {
+        mScheduler.cancel();
+        mLoaded.clear();
+    }
+
+    /**
+     * This method queues a loaded task, to show its icon with the next delivery.
+     *
+     * @param task The task which loaded its icon.
+     */
+    public void deliver(@NonNull final ImageLoadingTask task) {
+        mLoaded.add(task);
+        mScheduler.schedule();
+    }
+
+    @Override
+    public void run() {
+        ImageLoadingTask task;
+
+        while ((task = mLoaded.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * This class caches the icons of {@link LaunchableActivity} objects in memory.
+ *
+ * The cache is bounded by a byte size budget, a fraction of the memory class of the device, and
+ * evicts the least recently used icons first. It is shared by the whole process, so the icons
+ * survive the recreation of the activities, and it is safe to use from multiple threads.
+ */
+public final class IconCache {
+
+    /**
+     * The number of bytes of an icon pixel, when it isn't backed by a {@link Bitmap}.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * The fraction of the memory class used by the cache.
+     */
+    private static final int MEMORY_CLASS_FRACTION = 16;
+
+    private static final String TAG = "IconCache";
+
+    private static IconCache sInstance;
+
+    private final LruCache<Key, Drawable> mCache;
+
+    /**
+     * Constructor
+     *
+     * @param context The context to get the memory class of the device with.
+     */
+    private IconCache(@NonNull final Context context) {
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int budget = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION;
+
+        mCache = new LruCache<Key, Drawable>(budget) {
+            @Override
+            protected int sizeOf(final Key key, final Drawable value) {
+                return getByteCount(value);
+            }
+        };
+    }
+
+    /**
+     * This method returns the process-wide cache, creating it the first time.
+     *
+     * @param context The context to get the memory class of the device with.
+     * @return The cache.
+     */
+    @NonNull
+    public static synchronized IconCache getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new IconCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * This method returns the approximate number of bytes used by an icon.
+     *
+     * @param icon The icon.
+     * @return The number of bytes used by the icon.
+     */
+    private static int getByteCount(final Drawable icon) {
+        final int byteCount;
+
+        if (icon instanceof BitmapDrawable && ((BitmapDrawable) icon).getBitmap() != null) {
+            byteCount = ((BitmapDrawable) icon).getBitmap().getByteCount();
+        } else {
+            byteCount = Math.max(1, icon.getIntrinsicWidth()) *
+                    Math.max(1, icon.getIntrinsicHeight()) * BYTES_PER_PIXEL;
+        }
+
+        return byteCount;
+    }
+
+    /**
+     * This method removes all the icons from the cache.
+     */
+    public void clear() {
+        Log.d(TAG, "Clearing " + this);
+        mCache.evictAll();
+    }
+
+    /**
+     * This method returns a cached icon, marking it as the most recently used.
+     *
+     * @param key The key of the icon.
+     * @return The icon, {@code null} if it isn't cached.
+     */
+    @Nullable
+    public Drawable get(@NonNull final Key key) {
+        return mCache.get(key);
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * This method caches an icon, evicting the least recently used icons if the budget is
+     * exceeded.
+     *
+     * @param key  The key of the icon.
+     * @param icon The icon.
+     */
+    public void put(@NonNull final Key key, @NonNull final Drawable icon) {
+        mCache.put(key, icon);
+    }
+
+    /**
+     * This method removes the icons of a package from the cache.
+     *
+     * @param packageName The name of the package.
+     */
+    public void remove(@NonNull final String packageName) {
+        for (final Key key : mCache.snapshot().keySet()) {
+            if (packageName.equals(key.mComponent.getPackageName())) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IconCache{" +
+                "size=" + mCache.size() +
+                ", maxSize=" + mCache.maxSize() +
+                ", hits=" + mCache.hitCount() +
+                ", misses=" + mCache.missCount() +
+                ", evictions=" + mCache.evictionCount() +
+                '}';
+    }
+
+    /**
+     * This class identifies an icon of the {@link IconCache}.
+     */
+    public static final class Key {
+
+        private final ComponentName mComponent;
+
+        @DrawableRes
+        private final int mIconResource;
+
+        private final int mSizePixels;
+
+        /**
+         * Constructor
+         *
+         * @param launchableActivity The activity of the icon.
+         * @param sizePixels         The target size of the icon.
+         */
+        public Key(@NonNull final LaunchableActivity launchableActivity, final int sizePixels) {
+            mComponent = launchableActivity.getComponent();
+            mIconResource = launchableActivity.getIconResource();
+            mSizePixels = sizePixels;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            final boolean equals;
+
+            if (this == o) {
+                equals = true;
+            } else if (o instanceof Key) {
+                final Key key = (Key) o;
+
+                equals = mIconResource == key.mIconResource && mSizePixels == key.mSizePixels &&
+                        mComponent.equals(key.mComponent);
+            } else {
+                equals = false;
+            }
+
+            return equals;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mComponent.hashCode();
+
+            result = 31 * result + mIconResource;
+            result = 31 * result + mSizePixels;
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class caches the scaled icons of {@link LaunchableActivity} objects in app-private
+ * storage, so they don't have to be decoded from the package of the activity again.
+ *
+ * Each icon is a file named after its component, icon resource and size. It holds a small header
+ * with the last update time of the package, followed by the raw ARGB_8888 pixels, so an icon is
+ * loaded with a single mapping of the file. Icons of packages updated since they were written are
+ * ignored, and {@link #invalidate(String)} deletes the icons of a package.
+ *
+ * {@link #sweep(Collection, int)} bounds the cache to the icons of a catalog at a single size, so
+ * the icons of packages uninstalled while the process wasn't running, of superseded icon resources
+ * and of previous icon sizes don't accumulate.
+ *
+ * This performs I/O, it must not be used from the UI thread.
+ */
+public final class IconDiskCache {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final String DIRECTORY_NAME = "icons";
+
+    private static final String FILE_EXTENSION = ".icon";
+
+    /**
+     * The separator of the parts of the file names, which is never part of a package name.
+     */
+    private static final char FILE_NAME_SEPARATOR = '-';
+
+    private static final int MAGIC = 0x4849434E;
+
+    private static final String TAG = "IconDiskCache";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int VERSION = 1;
+
+    private static IconDiskCache sInstance;
+
+    private final Context mContext;
+
+    private final File mDirectory;
+
+    /**
+     * The last update times already looked up, by package name.
+     */
+    private final Map<String, Long> mLastUpdateTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param context The context to look up packages and create icons with.
+     */
+    private IconDiskCache(@NonNull final Context context) {
+        mContext = context.getApplicationContext();
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * This method returns the process-wide cache, creating it the first time.
+     *
+     * @param context The context to look up packages and create icons with.
+     * @return The cache.
+     */
+    @NonNull
+    public static synchronized IconDiskCache getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new IconDiskCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private static void close(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                Log.w(TAG, "Unable to close a cached icon.", e);
+            }
+        }
+    }
+
+    /**
+     * This method returns a bitmap of an icon in the ARGB_8888 format, drawing it if needed.
+     *
+     * @param icon       The icon.
+     * @param sizePixels The maximum size of the bitmap.
+     * @return The bitmap of the icon.
+     */
+    private static Bitmap getBitmap(final Drawable icon, final int sizePixels) {
+        final Bitmap iconBitmap;
+        final Bitmap bitmap;
+
+        if (icon instanceof BitmapDrawable) {
+            iconBitmap = ((BitmapDrawable) icon).getBitmap();
+        } else {
+            iconBitmap = null;
+        }
+
+        if (iconBitmap != null && iconBitmap.getConfig() == Bitmap.Config.ARGB_8888 &&
+                iconBitmap.getByteCount() ==
+                        iconBitmap.getWidth() * iconBitmap.getHeight() * BYTES_PER_PIXEL) {
+            bitmap = iconBitmap;
+        } else {
+            final int width = getDrawnSize(icon.getIntrinsicWidth(), sizePixels);
+            final int height = getDrawnSize(icon.getIntrinsicHeight(), sizePixels);
+
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            icon.setBounds(0, 0, width, height);
+            icon.draw(new Canvas(bitmap));
+        }
+
+        return bitmap;
+    }
+
+    private static int getDrawnSize(final int intrinsicSize, final int sizePixels) {
+        final int drawnSize;
+
+        if (intrinsicSize <= 0 || intrinsicSize > sizePixels) {
+            drawnSize = sizePixels;
+        } else {
+            drawnSize = intrinsicSize;
+        }
+
+        return drawnSize;
+    }
+
+    private File getFile(final LaunchableActivity launchableActivity, final int sizePixels) {
+        final ComponentName component = launchableActivity.getComponent();
+        final String name = component.getPackageName() + FILE_NAME_SEPARATOR +
+                Integer.toHexString(component.getClassName().hashCode()) +
+                FILE_NAME_SEPARATOR + Integer.toHexString(launchableActivity.getIconResource()) +
+                FILE_NAME_SEPARATOR + sizePixels + FILE_EXTENSION;
+
+        return new File(mDirectory, name);
+    }
+
+    private long getLastUpdateTime(final String packageName) {
+        return CatalogSnapshot.getLastUpdateTime(mContext.getPackageManager(), mLastUpdateTimes,
+                packageName);
+    }
+
+    /**
+     * This method deletes the icons of a package, after it was updated or removed.
+     *
+     * @param packageName The name of the package.
+     */
+    public void invalidate(@NonNull final String packageName) {
+        final String prefix = packageName + FILE_NAME_SEPARATOR;
+
+        mLastUpdateTimes.remove(packageName);
+
+        final File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(prefix);
+            }
+        });
+
+        if (files != null) {
+            for (final File file : files) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Unable to delete the cached icon: " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method reads a cached icon.
+     *
+     * @param launchableActivity The activity of the icon.
+     * @param sizePixels         The target size of the icon.
+     * @return The icon, {@code null} if it isn't cached or its package was updated since.
+     */
+    @Nullable
+    public Drawable read(@NonNull final LaunchableActivity launchableActivity,
+            final int sizePixels) {
+        final ComponentName component = launchableActivity.getComponent();
+        final File file = getFile(launchableActivity, sizePixels);
+        Drawable icon = null;
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(file);
+
+            final FileChannel channel = in.getChannel();
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+
+            if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION &&
+                    buffer.getLong() == getLastUpdateTime(component.getPackageName())) {
+                final byte[] className = new byte[buffer.getShort()];
+                buffer.get(className);
+
+                final int width = buffer.getInt();
+                final int height = buffer.getInt();
+
+                if (component.getClassName().equals(new String(className, UTF_8)) &&
+                        buffer.remaining() == width * height * BYTES_PER_PIXEL) {
+                    final Bitmap bitmap =
+                            Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+                    bitmap.copyPixelsFromBuffer(buffer);
+                    icon = new BitmapDrawable(mContext.getResources(), bitmap);
+                }
+            }
+        } catch (final FileNotFoundException e) {
+            Log.v(TAG, "No cached icon: " + file);
+        } catch (final IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to read the cached icon: " + file, e);
+        } finally {
+            close(in);
+        }
+
+        return icon;
+    }
+
+    /**
+     * This method deletes every cached icon which isn't the icon of an activity of the catalog at
+     * the given size, including the temporary files of interrupted writes.
+     *
+     * @param catalog    The activities whose icons are kept.
+     * @param sizePixels The target size of the kept icons.
+     */
+    public void sweep(@NonNull final Collection<LaunchableActivity> catalog,
+            final int sizePixels) {
+        final Set<String> kept = new HashSet<>(catalog.size());
+
+        for (final LaunchableActivity launchableActivity : catalog) {
+            kept.add(getFile(launchableActivity, sizePixels).getName());
+        }
+
+        final File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return !kept.contains(name);
+            }
+        });
+
+        if (files != null) {
+            for (final File file : files) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Unable to delete the cached icon: " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method writes an icon, replacing the cached one atomically.
+     *
+     * @param launchableActivity The activity of the icon.
+     * @param sizePixels         The target size of the icon.
+     * @param icon               The icon, scaled down to the target size.
+     */
+    public void write(@NonNull final LaunchableActivity launchableActivity, final int sizePixels,
+            @NonNull final Drawable icon) {
+        final ComponentName component = launchableActivity.getComponent();
+        final File file = getFile(launchableActivity, sizePixels);
+        final File temporary = new File(file.getPath() + ".tmp");
+        final Bitmap bitmap = getBitmap(icon, sizePixels);
+        final byte[] className = component.getClassName().getBytes(UTF_8);
+        final int pixelsLength = bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                4 + 4 + 8 + 2 + className.length + 4 + 4 + pixelsLength);
+        FileOutputStream out = null;
+        boolean written = false;
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(getLastUpdateTime(component.getPackageName()));
+        buffer.putShort((short) className.length);
+        buffer.put(className);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create the icon cache directory.");
+        }
+
+        try {
+            out = new FileOutputStream(temporary);
+            out.write(buffer.array());
+            out.close();
+            out = null;
+            written = true;
+        } catch (final IOException e) {
+            Log.w(TAG, "Unable to write the cached icon: " + file, e);
+        } finally {
+            close(out);
+        }
+
+        if (!written || !temporary.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.widget.ImageView;
+
+import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
+import com.hayaisoftware.launcher.threading.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class schedules {@link ImageLoadingTask}s by visibility.
+ *
+ * Submitted tasks are kept pending, and a poll is queued on the {@link TaskScheduler} for each,
+ * in the UI-critical lane for the visible positions and in the prefetch lane otherwise. Each poll
+ * runs the pending task with the highest priority when it starts: the visible positions first,
+ * then the next screen in the scroll direction, then the others by distance to the visible
+ * positions. Tasks of views which were recycled since are dropped without loading. Submitting
+ * never blocks.
+ *
+ * A task requesting an icon which is already pending or loading is merged into the existing
+ * task, so concurrent requests for the same icon are decoded only once. Each submission returns
+ * a {@link Request}, to cancel it once its view is recycled.
+ */
+public final class IconLoadScheduler {
+
+    /**
+     * The number of tasks merged into a pending or loading task.
+     */
+    private final AtomicInteger mMergedCount = new AtomicInteger();
+
+    /**
+     * The requests of the pending and loading tasks, by icon.
+     */
+    private final Map<IconCache.Key, Request> mLoading = new HashMap<>();
+
+    /**
+     * Synchronize to this lock when accessing the pending or loading tasks, or the visible
+     * range.
+     */
+    private final Object mLock = new Object();
+
+    private final List<ImageLoadingTask> mPending = new ArrayList<>();
+
+    /**
+     * Queued once per submitted task, runs the pending task with the highest priority.
+     */
+    private final SimpleTaskConsumerManager.Task mPollTask = new PollTask();
+
+    private final TaskScheduler mScheduler = TaskScheduler.getInstance();
+
+    private int mFirstVisible;
+
+    /**
+     * The direction of the last scroll, {@code 1} towards the end, {@code -1} towards the start.
+     */
+    private int mScrollDirection = 1;
+
+    private int mVisibleCount;
+
+    /**
+     * Constructor
+     *
+     * @param firstScreenSize The number of positions on the first screen, assumed to be visible
+     *                        until the visible range is set, as the first views are laid out
+     *                        before the first scroll event.
+     */
+    public IconLoadScheduler(final int firstScreenSize) {
+        mVisibleCount = firstScreenSize;
+    }
+
+    /**
+     * This method cancels a request. The task of the request no longer loads the icon for the
+     * view of the request, and is dropped if it hasn't started and no other view waits for it.
+     *
+     * @param request The request to cancel.
+     */
+    private void cancel(final Request request) {
+        final boolean dropped;
+
+        synchronized (mLock) {
+            dropped = request.mTask.removeTarget(request.mImageView) &&
+                    mPending.remove(request.mTask);
+
+            if (dropped) {
+                finish(request.mTask);
+            }
+        }
+
+        if (dropped) {
+            request.mQueued.mPoll.cancel();
+        }
+    }
+
+    /**
+     * This method removes a task from the pending or loading tasks.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @param task The task to remove.
+     */
+    private void finish(final ImageLoadingTask task) {
+        final Request loading = mLoading.get(task.getIconKey());
+
+        if (loading != null && loading.mTask == task) {
+            mLoading.remove(task.getIconKey());
+        }
+    }
+
+    /**
+     * This method returns the number of tasks merged into a task requesting the same icon, which
+     * is the number of duplicate decodes avoided.
+     *
+     * @return The number of merged tasks.
+     */
+    public int getMergedCount() {
+        return mMergedCount.get();
+    }
+
+    /**
+     * This method returns the priority of a position, the lower the sooner.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @param position The position in the grid.
+     * @return The priority of the position.
+     */
+    private int getPriority(final int position) {
+        final int lastVisible = mFirstVisible + mVisibleCount - 1;
+        final int priority;
+
+        if (position >= mFirstVisible && position <= lastVisible) {
+            priority = position - mFirstVisible;
+        } else {
+            final int ahead;
+            final int distance;
+
+            if (mScrollDirection > 0) {
+                ahead = position - lastVisible - 1;
+            } else {
+                ahead = mFirstVisible - position - 1;
+            }
+
+            if (position < mFirstVisible) {
+                distance = mFirstVisible - position;
+            } else {
+                distance = position - lastVisible;
+            }
+
+            if (ahead >= 0 && ahead < mVisibleCount) {
+                priority = mVisibleCount + ahead;
+            } else {
+                priority = 2 * mVisibleCount + distance;
+            }
+        }
+
+        return priority;
+    }
+
+    /**
+     * This method removes and returns the pending task with the highest priority, dropping the
+     * tasks of recycled views.
+     *
+     * @return The task to run, {@code null} if no task is pending.
+     */
+    @Nullable
+    private ImageLoadingTask poll() {
+        ImageLoadingTask next = null;
+
+        synchronized (mLock) {
+            final Iterator<ImageLoadingTask> iterator = mPending.iterator();
+            int nextPriority = Integer.MAX_VALUE;
+
+            while (iterator.hasNext()) {
+                final ImageLoadingTask task = iterator.next();
+
+                if (task.isCurrent()) {
+                    final int priority = getPriority(task.getPosition());
+
+                    if (next == null || priority < nextPriority) {
+                        next = task;
+                        nextPriority = priority;
+                    }
+                } else {
+                    iterator.remove();
+                    finish(task);
+                }
+            }
+
+            if (next != null) {
+                mPending.remove(next);
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * This method sets the range of visible positions, and the scroll direction from the
+     * previous range. An empty range is ignored, nothing is laid out yet.
+     *
+     * @param firstVisible The first visible position.
+     * @param visibleCount The number of visible positions.
+     */
+    public void setVisibleRange(final int firstVisible, final int visibleCount) {
+        if (visibleCount > 0) {
+            synchronized (mLock) {
+                if (firstVisible > mFirstVisible) {
+                    mScrollDirection = 1;
+                } else if (firstVisible < mFirstVisible) {
+                    mScrollDirection = -1;
+                }
+
+                mFirstVisible = firstVisible;
+                mVisibleCount = visibleCount;
+            }
+        }
+    }
+
+    /**
+     * This method drops the pending tasks, and cancels their polls.
+     */
+    public void shutdown() {
+        final List<Request> loading;
+
+        synchronized (mLock) {
+            loading = new ArrayList<>(mLoading.values());
+            mPending.clear();
+            mLoading.clear();
+        }
+
+        for (final Request request : loading) {
+            request.mPoll.cancel();
+        }
+    }
+
+    /**
+     * This method submits a task, to run once it has the highest priority.
+     *
+     * This must be called from the UI thread.
+     *
+     * @param task      The task to submit.
+     * @param imageView The view the task loads the icon for.
+     * @return The request, to cancel if the view is recycled.
+     */
+    @NonNull
+    public Request submit(@NonNull final ImageLoadingTask task,
+            @NonNull final ImageView imageView) {
+        final Request request;
+        final int lane;
+
+        synchronized (mLock) {
+            final Request loading = mLoading.get(task.getIconKey());
+
+            if (loading != null && loading.mTask.merge(task)) {
+                request = new Request(loading.mTask, imageView, loading.mQueued);
+            } else {
+                request = new Request(task, imageView, null);
+                mLoading.put(task.getIconKey(), request);
+                mPending.add(task);
+            }
+
+            if (getPriority(task.getPosition()) < mVisibleCount) {
+                lane = TaskScheduler.LANE_UI_CRITICAL;
+            } else {
+                lane = TaskScheduler.LANE_PREFETCH;
+            }
+        }
+
+        if (request.mQueued == request) {
+            request.mPoll = mScheduler.submit(mPollTask, lane);
+        } else {
+            mMergedCount.incrementAndGet();
+        }
+
+        return request;
+    }
+
+    /**
+     * This class is a submitted icon load, which can be cancelled.
+     */
+    public final class Request {
+
+        private final ImageView mImageView;
+
+        /**
+         * The request which queued the task of this request, itself unless it was merged.
+         */
+        private final Request mQueued;
+
+        private final ImageLoadingTask mTask;
+
+        /**
+         * The handle of the poll queued for the task, set only on the request which queued it.
+         */
+        private SimpleTaskConsumerManager.TaskHandle mPoll;
+
+        private Request(final ImageLoadingTask task, final ImageView imageView,
+                @Nullable final Request queued) {
+            mTask = task;
+            mImageView = imageView;
+
+            if (queued == null) {
+                mQueued = this;
+            } else {
+                mQueued = queued;
+            }
+        }
+
+        /**
+         * This method cancels this request, the icon is no longer loaded for its view. The task
+         * is removed from the queue if it hasn't started and no other view waits for it.
+         */
+        public void cancel() {
+            IconLoadScheduler.this.cancel(this);
+        }
+    }
+
+    private final class PollTask implements SimpleTaskConsumerManager.Task {
+
+        @Override
+        public boolean doTask() {
+            final ImageLoadingTask task = poll();
+
+            if (task != null) {
+                task.doTask();
+
+                synchronized (mLock) {
+                    finish(task);
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -14,63 +14,221 @@
 
 package com.hayaisoftware.launcher;
 
-import android.content.Context;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.widget.ImageView;
 
 import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
+/**
+ * This task loads the icon of a {@link LaunchableActivity} and shows it in the views waiting for
+ * it, through an {@link IconBatchDelivery}. Views requesting the same icon while it is loading
+ * are merged into this task, so the icon is decoded only once.
+ */
 public final class ImageLoadingTask implements Runnable, SimpleTaskConsumerManager.Task {
 
-    private final Context mContext;
+    private final IconBatchDelivery mDelivery;
+
+    private final IconCache mIconCache;
+
+    private final IconCache.Key mIconKey;
 
     private final int mIconSizePixels;
 
-    private final ImageView mImageView;
+    private final IconDiskCache mIconDiskCache;
 
     private final LaunchableActivity mLaunchableActivity;
 
+    private final PackageResourcesCache mResourcesCache;
+
+    /**
+     * The views waiting for the icon. Synchronize to this list when accessing it or
+     * {@link #mLoaded}.
+     */
+    private final List<Target> mTargets = new ArrayList<>(1);
+
     private Drawable mActivityIcon;
 
+    /**
+     * Whether the icon was loaded, no view can be merged anymore once it was.
+     */
+    private boolean mLoaded;
+
+    /**
+     * The position of the last merged view in the grid.
+     */
+    private volatile int mPosition;
+
     private ImageLoadingTask(final ImageView imageView, final LaunchableActivity launchableActivity,
-            final int iconSizePixels) {
-        mContext = imageView.getContext();
-        mImageView = imageView;
+            final int position, final int iconSizePixels, final IconCache iconCache,
+            final IconDiskCache iconDiskCache, final PackageResourcesCache resourcesCache,
+            final IconBatchDelivery delivery) {
+        mTargets.add(new Target(imageView, launchableActivity));
         mLaunchableActivity = launchableActivity;
+        mPosition = position;
         mIconSizePixels = iconSizePixels;
+        mIconKey = new IconCache.Key(launchableActivity, iconSizePixels);
+        mIconCache = iconCache;
+        mIconDiskCache = iconDiskCache;
+        mResourcesCache = resourcesCache;
+        mDelivery = delivery;
     }
 
     @Override
     public boolean doTask() {
-        mActivityIcon = mLaunchableActivity.getActivityIcon(mContext, mIconSizePixels);
-        final Handler handler = new Handler(mContext.getMainLooper());
+        mActivityIcon = mIconDiskCache.read(mLaunchableActivity, mIconSizePixels);
+
+        if (mActivityIcon == null) {
+            mActivityIcon = mLaunchableActivity.loadActivityIcon(mResourcesCache, mIconSizePixels);
+
+            if (mActivityIcon != null) {
+                mIconDiskCache.write(mLaunchableActivity, mIconSizePixels, mActivityIcon);
+            }
+        }
 
-        handler.post(this);
+        if (mActivityIcon != null) {
+            mIconCache.put(mIconKey, mActivityIcon);
+        }
+
+        synchronized (mTargets) {
+            mLoaded = true;
+        }
+
+        mDelivery.deliver(this);
 
         return true;
     }
 
+    public IconCache.Key getIconKey() {
+        return mIconKey;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * This method returns whether any view of this task still shows the activity it requested
+     * the icon for, or if they were all recycled for other ones.
+     *
+     * @return {@code true} if the icon is still needed, {@code false} otherwise.
+     */
+    public boolean isCurrent() {
+        synchronized (mTargets) {
+            for (final Target target : mTargets) {
+                if (target.isCurrent()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method merges the views of a task requesting the same icon into this task.
+     *
+     * @param task The task to merge, with the same {@link #getIconKey()}.
+     * @return {@code true} if merged, {@code false} if this task already loaded its icon.
+     */
+    public boolean merge(final ImageLoadingTask task) {
+        synchronized (mTargets) {
+            if (!mLoaded) {
+                synchronized (task.mTargets) {
+                    mTargets.addAll(task.mTargets);
+                }
+                mPosition = task.mPosition;
+            }
+
+            return !mLoaded;
+        }
+    }
+
+    /**
+     * This method removes a view from the views waiting for the icon.
+     *
+     * @param imageView The view to remove.
+     * @return {@code true} if no view waits for the icon anymore, {@code false} otherwise.
+     */
+    public boolean removeTarget(final ImageView imageView) {
+        synchronized (mTargets) {
+            final Iterator<Target> iterator = mTargets.iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().mImageView == imageView) {
+                    iterator.remove();
+                }
+            }
+
+            return mTargets.isEmpty();
+        }
+    }
+
     @Override
     public void run() {
-        if (mImageView.getTag() == mLaunchableActivity) {
-            mImageView.setImageDrawable(mActivityIcon);
+        synchronized (mTargets) {
+            for (final Target target : mTargets) {
+                if (target.isCurrent()) {
+                    target.mImageView.setImageDrawable(mActivityIcon);
+                }
+            }
         }
     }
 
     public static class Factory {
 
+        private final IconBatchDelivery mDelivery;
+
+        private final IconCache mIconCache;
+
         private final int mIconSizePixels;
 
-        public Factory(final int iconSizePixels) {
+        private final IconDiskCache mIconDiskCache;
+
+        private final PackageResourcesCache mResourcesCache;
+
+        public Factory(final int iconSizePixels, final IconCache iconCache,
+                final IconDiskCache iconDiskCache, final PackageResourcesCache resourcesCache,
+                final IconBatchDelivery delivery) {
             mIconSizePixels = iconSizePixels;
+            mIconCache = iconCache;
+            mIconDiskCache = iconDiskCache;
+            mResourcesCache = resourcesCache;
+            mDelivery = delivery;
         }
 
-        public SimpleTaskConsumerManager.Task create(final ImageView imageView,
-                final LaunchableActivity activity) {
-            return new ImageLoadingTask(imageView, activity, mIconSizePixels);
+        public ImageLoadingTask create(final ImageView imageView,
+                final LaunchableActivity activity, final int position) {
+            return new ImageLoadingTask(imageView, activity, position, mIconSizePixels, mIconCache,
+                    mIconDiskCache, mResourcesCache, mDelivery);
         }
     }
 
+    /**
+     * This class is a view waiting for an icon, with the activity it requested the icon for.
+     */
+    private static final class Target {
+
+        private final ImageView mImageView;
+
+        private final LaunchableActivity mLaunchableActivity;
+
+        private Target(final ImageView imageView, final LaunchableActivity launchableActivity) {
+            mImageView = imageView;
+            mLaunchableActivity = launchableActivity;
+        }
+
+        /**
+         * This method returns whether the view still shows the activity, or was recycled for
+         * another one.
+         *
+         * @return {@code true} if the icon is still needed, {@code false} otherwise.
+         */
+        private boolean isCurrent() {
+            return mImageView.getTag() == mLaunchableActivity;
+        }
+    }
 }
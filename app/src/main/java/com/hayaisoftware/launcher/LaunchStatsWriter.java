@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.Context;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * This class persists the launch statistics and priorities of {@link LaunchableActivity}s
+ * behind the caller's back.
+ *
+ * Changes are recorded in memory, coalesced by class name, then written in a single transaction
+ * on a background thread once no change came for {@link #FLUSH_DELAY_MILLIS}, or when
+ * {@link #flush()} is called.
+ */
+public final class LaunchStatsWriter implements Runnable {
+
+    /**
+     * The delay after the last change before the changes are written.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 2000L;
+
+    /**
+     * A single consumer, so the flushes are written in order. It is shared by all the writers,
+     * so a writer replacing a closed one writes after it without starting a new thread.
+     */
+    private static final SimpleTaskConsumerManager WRITER = new SimpleTaskConsumerManager(1);
+
+    private final Handler mHandler;
+
+    /**
+     * Synchronize to this lock when accessing {@link #mPending}.
+     */
+    private final Object mLock = new Object();
+
+    private final LaunchableActivityPrefs mPrefs;
+
+    private Map<String, LaunchableActivityPrefs.Row> mPending = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param context The context to open the preferences database with.
+     */
+    public LaunchStatsWriter(@NonNull final Context context) {
+        mPrefs = LaunchableActivityPrefs.acquire(context);
+        mHandler = new Handler(context.getMainLooper());
+    }
+
+    /**
+     * This method records the current persistent information of a {@link LaunchableActivity},
+     * to be written later.
+     *
+     * @param launchableActivity The {@link LaunchableActivity} to persist.
+     */
+    public void write(@NonNull final LaunchableActivity launchableActivity) {
+        synchronized (mLock) {
+            mPending.put(launchableActivity.getComponent().getClassName(),
+                    new LaunchableActivityPrefs.Row(launchableActivity));
+        }
+
+        mHandler.removeCallbacks(this);
+        mHandler.postDelayed(this, FLUSH_DELAY_MILLIS);
+    }
+
+    /**
+     * This method deletes the persistent information of all the {@link LaunchableActivity}
+     * objects of a package, on the background thread, along with their unwritten changes.
+     *
+     * @param packageName The name of the package.
+     */
+    public void deletePackage(@NonNull final String packageName) {
+        synchronized (mLock) {
+            final Iterator<LaunchableActivityPrefs.Row> iterator = mPending.values().iterator();
+
+            while (iterator.hasNext()) {
+                if (packageName.equals(iterator.next().getPackageName())) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        flush();
+        WRITER.addTask(new DeletePackageTask(mPrefs, packageName));
+    }
+
+    /**
+     * This method queues the recorded changes to be written on the background thread now.
+     */
+    public void flush() {
+        final Map<String, LaunchableActivityPrefs.Row> pending;
+
+        mHandler.removeCallbacks(this);
+        synchronized (mLock) {
+            pending = mPending;
+
+            if (!pending.isEmpty()) {
+                mPending = new HashMap<>();
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            WRITER.addTask(new FlushTask(mPrefs, pending));
+        }
+    }
+
+    /**
+     * This method writes the recorded changes, then releases the preferences once they are
+     * written. This writer must not be used afterwards.
+     */
+    public void close() {
+        flush();
+        WRITER.addTask(new ReleaseTask(mPrefs));
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    private static final class DeletePackageTask implements SimpleTaskConsumerManager.Task {
+
+        private final String mPackageName;
+
+        private final LaunchableActivityPrefs mPrefs;
+
+        private DeletePackageTask(final LaunchableActivityPrefs prefs, final String packageName) {
+            mPrefs = prefs;
+            mPackageName = packageName;
+        }
+
+        @Override
+        public boolean doTask() {
+            mPrefs.deletePackage(mPackageName);
+
+            return true;
+        }
+    }
+
+    private static final class FlushTask implements SimpleTaskConsumerManager.Task {
+
+        private final LaunchableActivityPrefs mPrefs;
+
+        private final Map<String, LaunchableActivityPrefs.Row> mRows;
+
+        private FlushTask(final LaunchableActivityPrefs prefs,
+                final Map<String, LaunchableActivityPrefs.Row> rows) {
+            mPrefs = prefs;
+            mRows = rows;
+        }
+
+        @Override
+        public boolean doTask() {
+            mPrefs.writePreferences(mRows);
+
+            return true;
+        }
+    }
+
+    private static final class ReleaseTask implements SimpleTaskConsumerManager.Task {
+
+        private final LaunchableActivityPrefs mPrefs;
+
+        private ReleaseTask(final LaunchableActivityPrefs prefs) {
+            mPrefs = prefs;
+        }
+
+        @Override
+        public boolean doTask() {
+            mPrefs.release();
+
+            return true;
+        }
+    }
+}
@@ -15,7 +15,6 @@
 package com.hayaisoftware.launcher;
 
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -28,21 +27,40 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.hayaisoftware.launcher.search.SearchKeys;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LaunchableActivity {
 
     private static final String TAG = "LaunchableActivity";
 
+    /**
+     * The search id of the next LaunchableActivity.
+     */
+    private static final AtomicInteger sNextSearchId = new AtomicInteger();
+
     private final String mActivityLabel;
 
     @DrawableRes
     private final int mIconResource;
 
+    /**
+     * The normalized initials of the words in the label, used to match acronym queries.
+     */
+    private final String mInitials;
+
     private final Intent mLaunchIntent;
 
-    private final Object mLock = new Object();
+    /**
+     * The id of this object in the search indexes, unique within the process.
+     */
+    private final int mSearchId;
 
-    private Drawable mActivityIcon;
+    /**
+     * The normalized label, used to match search queries without per-query conversions.
+     */
+    private final String mSearchKey;
 
     private long mLastLaunchTime;
 
@@ -57,6 +75,9 @@ public class LaunchableActivity {
         mLaunchIntent = intent;
         mActivityLabel = activityLabel;
         mIconResource = iconResource;
+        mSearchKey = SearchKeys.normalize(activityLabel);
+        mInitials = SearchKeys.initials(activityLabel);
+        mSearchId = sNextSearchId.getAndIncrement();
     }
 
     /**
@@ -68,14 +89,29 @@ public class LaunchableActivity {
      */
     public static LaunchableActivity getLaunchable(@NonNull final ActivityInfo info,
             @NonNull final PackageManager pm) {
-        final Intent launchIntent = new Intent(Intent.ACTION_MAIN);
         final String label = info.loadLabel(pm).toString();
-        final int iconResource = info.getIconResource();
+
+        return getLaunchable(new ComponentName(info.packageName, info.name), label,
+                info.getIconResource());
+    }
+
+    /**
+     * This is a convenience method to create a LaunchableActivity from previously loaded
+     * information.
+     *
+     * @param component    The component of the activity.
+     * @param label        The label of the activity.
+     * @param iconResource The icon resource of the activity.
+     * @return A LaunchableActivity launching the component.
+     */
+    public static LaunchableActivity getLaunchable(@NonNull final ComponentName component,
+            @NonNull final String label, @DrawableRes final int iconResource) {
+        final Intent launchIntent = new Intent(Intent.ACTION_MAIN);
 
         launchIntent.addCategory(Intent.CATEGORY_LAUNCHER);
         launchIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
                 Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-        launchIntent.setComponent(new ComponentName(info.packageName, info.name));
+        launchIntent.setComponent(component);
 
         return new LaunchableActivity(launchIntent, label, iconResource);
     }
@@ -84,48 +120,70 @@ public class LaunchableActivity {
         mUsagesQuantity++;
     }
 
-    public void deleteActivityIcon() {
-        synchronized (mLock) {
-            mActivityIcon = null;
+    /**
+     * This method loads the icon of this activity, scaled down to the target size if it is a
+     * bigger bitmap. The icon is not kept, see {@link IconCache}.
+     *
+     * @param resourcesCache The cache to get the Resources of the package of this activity from.
+     * @param iconSizePixels The target size of the icon.
+     * @return The icon, {@code null} if it couldn't be loaded.
+     */
+    @Nullable
+    public Drawable loadActivityIcon(final PackageResourcesCache resourcesCache,
+            final int iconSizePixels) {
+        final Resources resources = resourcesCache.get(getComponent());
+        Drawable activityIcon = null;
+
+        if (resources != null) {
+            try {
+                //noinspection deprecation
+                activityIcon = resources.getDrawable(mIconResource);
+            } catch (final Resources.NotFoundException e) {
+                Log.e(TAG, "Error when trying to inflate a launcher icon.", e);
+            }
         }
-    }
 
-    @Nullable
-    public Drawable getActivityIcon(final Context context, final int iconSizePixels) {
-        if (!isIconLoaded()) {
-            synchronized (mLock) {
-                try {
-                    final PackageManager pm = context.getPackageManager();
-                    final Resources resources = pm.getResourcesForActivity(getComponent());
-
-                    //noinspection deprecation
-                    mActivityIcon = resources.getDrawable(mIconResource);
-
-                } catch (PackageManager.NameNotFoundException | Resources.NotFoundException e) {
-                    Log.e(TAG, "Error when trying to inflate a launcher icon.", e);
-                }
-
-                //rescaling the icon if it is bigger than the target size
-                //TODO do this when it is not a bitmap drawable?
-                if (mActivityIcon instanceof BitmapDrawable) {
-                    if (mActivityIcon.getIntrinsicHeight() > iconSizePixels &&
-                            mActivityIcon.getIntrinsicWidth() > iconSizePixels) {
-                        //noinspection deprecation
-                        mActivityIcon = new BitmapDrawable(
-                                Bitmap.createScaledBitmap(
-                                        ((BitmapDrawable) mActivityIcon).getBitmap()
-                                        , iconSizePixels, iconSizePixels, false));
-                    }
-                }
+        //rescaling the icon if it is bigger than the target size
+        //TODO do this when it is not a bitmap drawable?
+        if (activityIcon instanceof BitmapDrawable) {
+            if (activityIcon.getIntrinsicHeight() > iconSizePixels &&
+                    activityIcon.getIntrinsicWidth() > iconSizePixels) {
+                //noinspection deprecation
+                activityIcon = new BitmapDrawable(
+                        Bitmap.createScaledBitmap(
+                                ((BitmapDrawable) activityIcon).getBitmap()
+                                , iconSizePixels, iconSizePixels, false));
             }
         }
-        return mActivityIcon;
+
+        return activityIcon;
     }
 
     public ComponentName getComponent() {
         return mLaunchIntent.getComponent();
     }
 
+    /**
+     * This method returns the icon resource of this activity.
+     *
+     * @return The icon resource, in the resources of the package of this activity.
+     */
+    @DrawableRes
+    public int getIconResource() {
+        return mIconResource;
+    }
+
+    /**
+     * This method returns the accent stripped, lower case initials of the words in the label of
+     * this activity.
+     *
+     * @return The initials of this activity.
+     * @see SearchKeys#initials(CharSequence)
+     */
+    public String getInitials() {
+        return mInitials;
+    }
+
     public Intent getLaunchIntent() {
         return mLaunchIntent;
     }
@@ -138,6 +196,26 @@ public class LaunchableActivity {
         return mPriority;
     }
 
+    /**
+     * This method returns the id of this activity in the search indexes, which never changes
+     * and is unique within the process.
+     *
+     * @return The search id of this activity.
+     */
+    public int getSearchId() {
+        return mSearchId;
+    }
+
+    /**
+     * This method returns the accent stripped, lower case label of this activity.
+     *
+     * @return The search key for this activity.
+     * @see SearchKeys#normalize(CharSequence)
+     */
+    public String getSearchKey() {
+        return mSearchKey;
+    }
+
     public int getUsageQuantity() {
         return mUsagesQuantity;
     }
@@ -154,10 +232,6 @@ public class LaunchableActivity {
         return mUsageTime;
     }
 
-    public boolean isIconLoaded() {
-        return mActivityIcon != null;
-    }
-
     public void setLaunchTime() {
         mLastLaunchTime = System.currentTimeMillis() / 1000;
     }
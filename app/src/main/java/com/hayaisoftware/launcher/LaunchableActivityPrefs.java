@@ -14,19 +14,36 @@
 
 package com.hayaisoftware.launcher;
 
-import android.content.ContentValues;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a convenience class write persistent information to save to restore
  * {@link LaunchableActivity} objects.
+ *
+ * A single instance is shared by the process, use {@link #acquire(Context)} to get it and
+ * {@link #release()} once done with it. The connection is kept open, in write-ahead logging
+ * mode, with the statements compiled once, until the last reference is released. Writes are
+ * serialized by a private lock, reads never wait for them.
  */
-public class LaunchableActivityPrefs extends SQLiteOpenHelper {
+public final class LaunchableActivityPrefs extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 5;
 
     private static final String KEY_CLASSNAME = "ClassName";
 
@@ -36,39 +53,177 @@ public class LaunchableActivityPrefs extends SQLiteOpenHelper {
 
     private static final String KEY_LASTLAUNCHTIMESTAMP = "LastLaunchTimestamp";
 
+    private static final String KEY_PACKAGENAME = "PackageName";
+
     private static final String KEY_USAGEQUANTIY = "UsageQuantity";
 
+    private static final String PACKAGENAME_INDEX = "PackageNameIndex";
+
     private static final String TABLE_NAME = "ActivityLaunchNumbers";
 
-    public LaunchableActivityPrefs(final Context context) {
+    /**
+     * The number of unused pages the database must have before it is compacted, at least a
+     * quarter of them.
+     */
+    private static final long VACUUM_MIN_FREE_PAGES = 16L;
+
+    private static final String SQL_DELETE =
+            "DELETE FROM " + TABLE_NAME + " WHERE " + KEY_CLASSNAME + "=?";
+
+    private static final String SQL_DELETE_PACKAGE =
+            "DELETE FROM " + TABLE_NAME + " WHERE " + KEY_PACKAGENAME + "=?";
+
+    /**
+     * Inserts a row, binding the same arguments as {@link #SQL_UPDATE}.
+     */
+    private static final String SQL_INSERT = String.format(
+            "INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)", TABLE_NAME,
+            KEY_LASTLAUNCHTIMESTAMP, KEY_FAVORITE, KEY_USAGEQUANTIY, KEY_PACKAGENAME,
+            KEY_CLASSNAME);
+
+    private static final String SQL_SELECT = String.format("SELECT %s, %s, %s, %s FROM %s",
+            KEY_CLASSNAME, KEY_LASTLAUNCHTIMESTAMP, KEY_USAGEQUANTIY, KEY_FAVORITE, TABLE_NAME);
+
+    private static final String SQL_SELECT_CLASSNAME =
+            SQL_SELECT + " WHERE " + KEY_CLASSNAME + "=?";
+
+    private static final String SQL_SELECT_COMPONENTS = String.format("SELECT %s, %s FROM %s",
+            KEY_CLASSNAME, KEY_PACKAGENAME, TABLE_NAME);
+
+    /**
+     * Updates the columns known by {@link Row}, keeping the others.
+     */
+    private static final String SQL_UPDATE = String.format(
+            "UPDATE %s SET %s=?, %s=?, %s=?, %s=? WHERE %s=?", TABLE_NAME,
+            KEY_LASTLAUNCHTIMESTAMP, KEY_FAVORITE, KEY_USAGEQUANTIY, KEY_PACKAGENAME,
+            KEY_CLASSNAME);
+
+    private static final String SQL_UPDATE_PACKAGE = String.format(
+            "UPDATE %s SET %s=? WHERE %s=?", TABLE_NAME, KEY_PACKAGENAME, KEY_CLASSNAME);
+
+    /**
+     * The instance shared by the process, {@code null} if no reference is held.
+     */
+    private static LaunchableActivityPrefs sInstance;
+
+    /**
+     * The number of references held to {@link #sInstance}.
+     */
+    private static int sReferences;
+
+    /**
+     * Synchronize to this lock when opening or closing the database.
+     */
+    private final Object mOpenLock = new Object();
+
+    /**
+     * The number of write transactions committed.
+     */
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+
+    /**
+     * Synchronize to this lock when writing, the statements must not be used concurrently.
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * The open database, {@code null} until first used.
+     */
+    private volatile SQLiteDatabase mDatabase;
+
+    private SQLiteStatement mDeletePackageStatement;
+
+    private SQLiteStatement mDeleteStatement;
+
+    private SQLiteStatement mInsertStatement;
+
+    private SQLiteStatement mUpdateStatement;
+
+    private LaunchableActivityPrefs(final Context context) {
         super(context, TABLE_NAME, null, DATABASE_VERSION);
     }
 
     /**
-     * This method deletes a column based on the classname.
+     * This method returns the instance shared by the process, which must be released with
+     * {@link #release()} once done with it.
      *
-     * @param db        The database.
-     * @param className The classname of the column to delete.
+     * @param context The context to open the database with.
+     * @return The shared instance.
+     */
+    @NonNull
+    public static LaunchableActivityPrefs acquire(@NonNull final Context context) {
+        synchronized (LaunchableActivityPrefs.class) {
+            if (sInstance == null) {
+                sInstance = new LaunchableActivityPrefs(context.getApplicationContext());
+            }
+            sReferences++;
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * This method adds a column to the table.
+     *
+     * @param db         The database.
+     * @param column     The name of the column.
+     * @param definition The type and constraints of the column.
      */
-    private static void deletePreference(final SQLiteDatabase db, final String className) {
-        db.delete(TABLE_NAME, KEY_CLASSNAME + "=?", new String[]{className});
+    private static void addColumn(final SQLiteDatabase db, final String column,
+            final String definition) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + column + ' ' + definition);
     }
 
     /**
-     * This method deletes the {@link LaunchableActivity} from persistent storage.
+     * This method binds a row to {@link #SQL_UPDATE} or {@link #SQL_INSERT}.
      *
-     * @param launchableActivity The LaunchableActivity to remove from persistent storage.
+     * @param statement The compiled statement.
+     * @param className The class name of the {@link LaunchableActivity} of the row.
+     * @param row       The persistent information to bind.
      */
-    public void deletePreference(final LaunchableActivity launchableActivity) {
-        final SQLiteDatabase db = getWritableDatabase();
+    private static void bindRow(final SQLiteStatement statement, final String className,
+            final Row row) {
+        statement.clearBindings();
 
-        deletePreference(db, launchableActivity.getComponent().getClassName());
+        if (row.mUsageQuantity > 0) {
+            statement.bindLong(1, row.mLaunchTime);
+            statement.bindLong(3, row.mUsageQuantity);
+        }
+
+        if (row.mPriority > 0) {
+            statement.bindLong(2, row.mPriority);
+        }
 
-        db.close();
+        if (row.mPackageName != null) {
+            statement.bindString(4, row.mPackageName);
+        }
+
+        statement.bindString(5, className);
     }
 
     @Override
-    public void onCreate(final SQLiteDatabase db) {
+    public void close() {
+        synchronized (mOpenLock) {
+            synchronized (mWriteLock) {
+                if (mDatabase != null) {
+                    mDeletePackageStatement.close();
+                    mDeleteStatement.close();
+                    mInsertStatement.close();
+                    mUpdateStatement.close();
+                    mDatabase = null;
+                }
+
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * This method creates the table as of database version 3.
+     *
+     * @param db The database.
+     */
+    private static void createTable(final SQLiteDatabase db) {
         final String tableCreate = String.format("CREATE TABLE %s (%S INTEGER PRIMARY KEY, " +
                         "%s TEXT UNIQUE, %s INTEGER, %s INTEGER, %s INTEGER);",
                 TABLE_NAME, KEY_ID, KEY_CLASSNAME, KEY_LASTLAUNCHTIMESTAMP,
@@ -77,78 +232,518 @@ public class LaunchableActivityPrefs extends SQLiteOpenHelper {
         db.execSQL(tableCreate);
     }
 
+    /**
+     * This method deletes the rows of all the {@link LaunchableActivity} objects of a package.
+     *
+     * @param packageName The name of the package.
+     * @return The number of deleted rows.
+     */
+    public int deletePackage(@NonNull final String packageName) {
+        getDatabase();
+        synchronized (mWriteLock) {
+            final int deleted;
+
+            mDeletePackageStatement.bindString(1, packageName);
+            deleted = mDeletePackageStatement.executeUpdateDelete();
+            mWriteCount.incrementAndGet();
+
+            return deleted;
+        }
+    }
+
+    /**
+     * This method deletes a column based on the classname. The caller must be synchronized to
+     * {@link #mWriteLock}.
+     *
+     * @param className The classname of the column to delete.
+     */
+    private void deletePreference(final String className) {
+        mDeleteStatement.bindString(1, className);
+        mDeleteStatement.executeUpdateDelete();
+    }
+
+    /**
+     * This method deletes the {@link LaunchableActivity} from persistent storage.
+     *
+     * @param launchableActivity The LaunchableActivity to remove from persistent storage.
+     */
+    public void deletePreference(final LaunchableActivity launchableActivity) {
+        getDatabase();
+        synchronized (mWriteLock) {
+            deletePreference(launchableActivity.getComponent().getClassName());
+            mWriteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method reads the persistent information of all {@link LaunchableActivity} objects, in
+     * a single query.
+     *
+     * @return The persistent information, by class name.
+     */
+    @NonNull
+    public Map<String, Row> getAllPreferences() {
+        final Cursor cursor = getDatabase().rawQuery(SQL_SELECT, null);
+        final Map<String, Row> rows = new HashMap<>(cursor.getCount());
+
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getString(0), getRow(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * This method returns the names of the columns of the table.
+     *
+     * @param db The database.
+     * @return The names of the columns, empty if the table doesn't exist.
+     */
+    private static Collection<String> getColumns(final SQLiteDatabase db) {
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + TABLE_NAME + ')', null);
+        final Collection<String> columns = new HashSet<>(cursor.getCount());
+
+        try {
+            final int nameColumn = cursor.getColumnIndexOrThrow("name");
+
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return columns;
+    }
+
+    /**
+     * This method returns the open database, opening it and compiling the statements the first
+     * time.
+     *
+     * @return The open database.
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mDatabase;
+
+        if (db == null) {
+            synchronized (mOpenLock) {
+                db = mDatabase;
+
+                if (db == null) {
+                    db = getWritableDatabase();
+                    mDeletePackageStatement = db.compileStatement(SQL_DELETE_PACKAGE);
+                    mDeleteStatement = db.compileStatement(SQL_DELETE);
+                    mInsertStatement = db.compileStatement(SQL_INSERT);
+                    mUpdateStatement = db.compileStatement(SQL_UPDATE);
+                    mDatabase = db;
+                }
+            }
+        }
+
+        return db;
+    }
+
+    /**
+     * This method returns the number of writes committed so far, to tell whether persistent
+     * information read earlier may be outdated.
+     *
+     * @return The number of committed writes.
+     */
+    public int getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    /**
+     * This method reads a {@link Row} from a cursor positioned on a row of {@link #SQL_SELECT}.
+     *
+     * @param cursor The cursor to read from.
+     * @return The persistent information of the row.
+     */
+    private static Row getRow(final Cursor cursor) {
+        return new Row(cursor.getLong(1), cursor.getInt(3), cursor.getInt(2), null);
+    }
+
+    /**
+     * This method returns whether enough of the database is unused to compact it, so it is only
+     * compacted once in a while.
+     *
+     * @param db The database.
+     * @return {@code true} if the database should be compacted.
+     */
+    private static boolean isFragmented(final SQLiteDatabase db) {
+        final long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        final long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+        return freePages >= VACUUM_MIN_FREE_PAGES && freePages * 4L >= pages;
+    }
+
+    /**
+     * This method returns whether a package is installed, whether or not it is enabled or
+     * its storage is mounted.
+     *
+     * @param packageManager The PackageManager to query.
+     * @param packageName    The name of the package.
+     * @return {@code false} if the package was uninstalled.
+     */
+    private static boolean isInstalled(final PackageManager packageManager,
+            final String packageName) {
+        boolean installed;
+
+        try {
+            packageManager.getPackageInfo(packageName, 0);
+            installed = true;
+        } catch (final PackageManager.NameNotFoundException e) {
+            installed = false;
+        }
+
+        return installed;
+    }
+
+    @Override
+    public void onCreate(final SQLiteDatabase db) {
+        createTable(db);
+        onUpgrade(db, 3, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onOpen(final SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Lets the queries run on other connections while the launch statistics are written.
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * This method upgrades the database one version at a time, keeping the existing rows.
+     * Each step must only ever be appended to, never modified, once released.
+     */
     @Override
     public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-        if (oldVersion < DATABASE_VERSION && newVersion == DATABASE_VERSION) {
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-            onCreate(db);
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+
+        if (oldVersion < 4) {
+            upgradeToVersion4(db);
+        }
+
+        if (oldVersion < 5) {
+            upgradeToVersion5(db);
         }
     }
 
     /**
-     * This method updates a {@link LaunchableActivity} with persistent information.
+     * This method deletes the rows of the {@link LaunchableActivity} objects which are no longer
+     * in the catalog because their package was uninstalled, and fills in the package name of
+     * older rows.
      *
-     * @param launchableActivity The {@link LaunchableActivity} to update.
+     * Rows of activities missing from the catalog are kept while their package is still
+     * installed, as an app on storage which isn't mounted yet, a disabled app or an app being
+     * updated is missing from the catalog for a while. Rows without a package name can't be
+     * checked and are kept as well. The database is compacted once enough of it is unused.
+     *
+     * This performs I/O, it must not be called from the UI thread.
+     *
+     * @param catalog        The complete catalog of launchable activities.
+     * @param packageManager The PackageManager to check the packages of the missing activities
+     *                       with.
+     * @return The number of deleted rows.
      */
-    public void setPreferences(final LaunchableActivity launchableActivity) {
-        final SQLiteDatabase db = getReadableDatabase();
+    public int prune(@NonNull final Collection<? extends LaunchableActivity> catalog,
+            @NonNull final PackageManager packageManager) {
+        final Map<String, String> packageNames = new HashMap<>(catalog.size());
+        final Map<String, String> missing = new HashMap<>();
+        final Collection<String> removed = new ArrayList<>();
+        final Collection<String> unknownPackages = new ArrayList<>();
+        final Map<String, Boolean> installed = new HashMap<>();
+
+        for (final LaunchableActivity launchableActivity : catalog) {
+            final ComponentName component = launchableActivity.getComponent();
+
+            packageNames.put(component.getClassName(), component.getPackageName());
+        }
 
-        final String[] whereArgs = {launchableActivity.getComponent().getClassName()};
-        final String[] columns = {KEY_LASTLAUNCHTIMESTAMP, KEY_USAGEQUANTIY, KEY_FAVORITE};
-        final Cursor cursor = db.query(TABLE_NAME, columns, KEY_CLASSNAME + "=?", whereArgs, null,
-                null, null);
+        final SQLiteDatabase db = getDatabase();
+        final Cursor cursor = db.rawQuery(SQL_SELECT_COMPONENTS, null);
 
-        if (cursor.moveToFirst()) {
-            int column = cursor.getColumnIndex(KEY_LASTLAUNCHTIMESTAMP);
+        try {
+            while (cursor.moveToNext()) {
+                final String className = cursor.getString(0);
 
-            if (column != -1) {
-                launchableActivity.setLaunchTime(cursor.getLong(column));
+                if (!packageNames.containsKey(className)) {
+                    if (!cursor.isNull(1)) {
+                        missing.put(className, cursor.getString(1));
+                    }
+                } else if (cursor.isNull(1)) {
+                    unknownPackages.add(className);
+                }
             }
+        } finally {
+            cursor.close();
+        }
+
+        for (final Map.Entry<String, String> entry : missing.entrySet()) {
+            final String packageName = entry.getValue();
 
-            column = cursor.getColumnIndex(KEY_FAVORITE);
+            if (!installed.containsKey(packageName)) {
+                installed.put(packageName, isInstalled(packageManager, packageName));
+            }
+
+            if (!installed.get(packageName)) {
+                removed.add(entry.getKey());
+            }
+        }
 
-            if (column != -1) {
-                launchableActivity.setPriority(cursor.getInt(column));
+        if (!removed.isEmpty() || !unknownPackages.isEmpty()) {
+            synchronized (mWriteLock) {
+                final SQLiteStatement updatePackage = db.compileStatement(SQL_UPDATE_PACKAGE);
+
+                db.beginTransaction();
+                try {
+                    for (final String className : removed) {
+                        deletePreference(className);
+                    }
+
+                    for (final String className : unknownPackages) {
+                        updatePackage.bindString(1, packageNames.get(className));
+                        updatePackage.bindString(2, className);
+                        updatePackage.executeUpdateDelete();
+                    }
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    updatePackage.close();
+                }
+
+                mWriteCount.incrementAndGet();
             }
+        }
+
+        if (!removed.isEmpty() && isFragmented(db)) {
+            db.execSQL("VACUUM");
+        }
 
-            column = cursor.getColumnIndex(KEY_USAGEQUANTIY);
+        return removed.size();
+    }
 
-            if (column != -1) {
-                launchableActivity.setUsageQuantity(cursor.getInt(column));
+    /**
+     * This method releases a reference acquired by {@link #acquire(Context)}, closing the
+     * database when the last reference is released.
+     */
+    public void release() {
+        synchronized (LaunchableActivityPrefs.class) {
+            if (sInstance == this && --sReferences == 0) {
+                sInstance = null;
+                close();
             }
         }
+    }
+
+    /**
+     * This method updates a {@link LaunchableActivity} with persistent information.
+     *
+     * @param launchableActivity The {@link LaunchableActivity} to update.
+     */
+    public void setPreferences(final LaunchableActivity launchableActivity) {
+        final String[] selectionArgs = {launchableActivity.getComponent().getClassName()};
+        final Cursor cursor = getDatabase().rawQuery(SQL_SELECT_CLASSNAME, selectionArgs);
+        final Row row;
+
+        try {
+            row = cursor.moveToFirst() ? getRow(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+
+        if (row != null) {
+            row.applyTo(launchableActivity);
+        }
+    }
 
-        cursor.close();
+    /**
+     * This method updates {@link LaunchableActivity} objects with persistent information, read
+     * in a single query.
+     *
+     * @param launchableActivities The {@link LaunchableActivity} objects to update.
+     */
+    public void setPreferences(
+            @NonNull final Collection<? extends LaunchableActivity> launchableActivities) {
+        setPreferences(getAllPreferences(), launchableActivities);
     }
 
     /**
-     * Write the preferences from the {@link LaunchableActivity} to persistent storage.
+     * This method updates {@link LaunchableActivity} objects with persistent information
+     * previously read by {@link #getAllPreferences()}.
      *
-     * @param launchableActivity The {@link LaunchableActivity} to write to persistent storage.
+     * @param rows                 The persistent information, by class name.
+     * @param launchableActivities The {@link LaunchableActivity} objects to update.
      */
-    public void writePreference(final LaunchableActivity launchableActivity) {
-        final SQLiteDatabase db = getWritableDatabase();
-        final ContentValues values = new ContentValues();
-        final int priority = launchableActivity.getPriority();
-        final int usageQuantity = launchableActivity.getUsageQuantity();
-        final String className = launchableActivity.getComponent().getClassName();
+    public static void setPreferences(@NonNull final Map<String, Row> rows,
+            @NonNull final Collection<? extends LaunchableActivity> launchableActivities) {
+        for (final LaunchableActivity launchableActivity : launchableActivities) {
+            final Row row = rows.get(launchableActivity.getComponent().getClassName());
 
-        if (priority > 0) {
-            values.put(KEY_FAVORITE, priority);
+            if (row != null) {
+                row.applyTo(launchableActivity);
+            }
         }
+    }
 
-        if (usageQuantity > 0) {
-            values.put(KEY_LASTLAUNCHTIMESTAMP, launchableActivity.getLaunchTime());
-            values.put(KEY_USAGEQUANTIY, usageQuantity);
+    /**
+     * This method upgrades the table from any earlier version to version 3. The layouts of
+     * these versions differed, so the version 3 columns which are missing are added. The rows
+     * can't be kept without their class name, the table is created again if it has none.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion3(final SQLiteDatabase db) {
+        final Collection<String> columns = getColumns(db);
+
+        if (columns.contains(KEY_CLASSNAME)) {
+            for (final String column :
+                    new String[]{KEY_LASTLAUNCHTIMESTAMP, KEY_FAVORITE, KEY_USAGEQUANTIY}) {
+                if (!columns.contains(column)) {
+                    addColumn(db, column, "INTEGER");
+                }
+            }
+        } else {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            createTable(db);
         }
+    }
+
+    /**
+     * This method upgrades the table from version 3 to version 4, adding the package name.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion4(final SQLiteDatabase db) {
+        addColumn(db, KEY_PACKAGENAME, "TEXT");
+    }
 
-        if (values.size() == 0) {
-            deletePreference(db, className);
+    /**
+     * This method upgrades the table from version 4 to version 5, indexing the package name.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion5(final SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + PACKAGENAME_INDEX + " ON " + TABLE_NAME + " (" +
+                KEY_PACKAGENAME + ')');
+    }
+
+    /**
+     * This method writes a row, or deletes it if it holds nothing worth persisting. The caller
+     * must be synchronized to {@link #mWriteLock}.
+     *
+     * @param className The class name of the {@link LaunchableActivity} of the row.
+     * @param row       The persistent information to write.
+     */
+    private void writePreference(final String className, final Row row) {
+        if (row.mPriority <= 0 && row.mUsageQuantity <= 0) {
+            deletePreference(className);
         } else {
-            values.put(KEY_CLASSNAME, className);
-            db.replace(TABLE_NAME, null, values);
+            bindRow(mUpdateStatement, className, row);
+
+            if (mUpdateStatement.executeUpdateDelete() == 0) {
+                bindRow(mInsertStatement, className, row);
+                mInsertStatement.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * This method writes rows to persistent storage, in a single transaction.
+     *
+     * @param rows The persistent information to write, by class name.
+     */
+    public void writePreferences(@NonNull final Map<String, Row> rows) {
+        final SQLiteDatabase db = getDatabase();
+
+        synchronized (mWriteLock) {
+            db.beginTransaction();
+            try {
+                for (final Map.Entry<String, Row> row : rows.entrySet()) {
+                    writePreference(row.getKey(), row.getValue());
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            mWriteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * This class holds the persistent information of a {@link LaunchableActivity}.
+     */
+    public static final class Row {
+
+        private final long mLaunchTime;
+
+        /**
+         * The name of the package, {@code null} if unknown.
+         */
+        private final String mPackageName;
+
+        private final int mPriority;
+
+        private final int mUsageQuantity;
+
+        private Row(final long launchTime, final int priority, final int usageQuantity,
+                final String packageName) {
+            mLaunchTime = launchTime;
+            mPriority = priority;
+            mUsageQuantity = usageQuantity;
+            mPackageName = packageName;
+        }
+
+        /**
+         * Constructor, copying the current persistent information of a
+         * {@link LaunchableActivity}.
+         *
+         * @param launchableActivity The {@link LaunchableActivity} to copy from.
+         */
+        public Row(@NonNull final LaunchableActivity launchableActivity) {
+            this(launchableActivity.getLaunchTime(), launchableActivity.getPriority(),
+                    launchableActivity.getUsageQuantity(),
+                    launchableActivity.getComponent().getPackageName());
+        }
+
+        public long getLaunchTime() {
+            return mLaunchTime;
         }
 
-        db.close();
+        @Nullable
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public int getUsageQuantity() {
+            return mUsageQuantity;
+        }
+
+        /**
+         * This method updates a {@link LaunchableActivity} with this persistent information.
+         *
+         * @param launchableActivity The {@link LaunchableActivity} to update.
+         */
+        private void applyTo(final LaunchableActivity launchableActivity) {
+            launchableActivity.setLaunchTime(mLaunchTime);
+            launchableActivity.setPriority(mPriority);
+            launchableActivity.setUsageQuantity(mUsageQuantity);
+        }
     }
 }
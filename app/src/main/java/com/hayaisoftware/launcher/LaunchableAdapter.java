@@ -21,10 +21,14 @@ import android.app.usage.UsageStatsManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -37,20 +41,32 @@ import android.widget.TextView;
 
 import com.hayaisoftware.launcher.activities.SharedLauncherPrefs;
 import com.hayaisoftware.launcher.comparators.AlphabeticalOrder;
+import com.hayaisoftware.launcher.comparators.ChainedOrder;
 import com.hayaisoftware.launcher.comparators.PinToTop;
 import com.hayaisoftware.launcher.comparators.RecentOrder;
+import com.hayaisoftware.launcher.comparators.SearchRelevanceOrder;
 import com.hayaisoftware.launcher.comparators.UsageOrder;
+import com.hayaisoftware.launcher.search.FuzzyMatcher;
+import com.hayaisoftware.launcher.search.MatchScorer;
+import com.hayaisoftware.launcher.search.SearchKeys;
+import com.hayaisoftware.launcher.search.TopKSelector;
+import com.hayaisoftware.launcher.search.TrigramIndex;
 import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
+import com.hayaisoftware.launcher.threading.TaskScheduler;
 
-import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class is an adapter for LaunchableActivities, originally inspired by the ArrayAdapter
@@ -76,44 +92,99 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     public static final Comparator<LaunchableActivity> RECENT = new RecentOrder();
 
+    /**
+     * This comparator orders equally matching search results in most used, then most recently
+     * used order.
+     */
+    public static final Comparator<LaunchableActivity> SEARCH_RELEVANCE =
+            new SearchRelevanceOrder();
+
     /**
      * This comparator orders {@link LaunchableActivity} objects in most used order at the head
      * of the list.
      */
     public static final Comparator<LaunchableActivity> USAGE = new UsageOrder();
 
-    private static final Pattern DIACRITICAL_MARKS =
-            Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    /**
+     * The number of characters of a query for each typo tolerated by the fuzzy search.
+     */
+    private static final int FUZZY_CHARACTERS_PER_TYPO = 4;
+
+    /**
+     * The maximum number of typos tolerated by the fuzzy search.
+     */
+    private static final int FUZZY_MAX_TYPOS = 2;
+
+    /**
+     * The shortest query for which the fuzzy search is used, shorter queries are too ambiguous.
+     */
+    private static final int FUZZY_MIN_QUERY_LENGTH = 3;
+
+    /**
+     * The maximum number of search results ranked by relevance, about a screen of results. The
+     * remaining results follow in their sorted order.
+     */
+    private static final int RANKED_RESULTS = 32;
+
+    /**
+     * The filter checks whether its pass was superseded each time this many launchables, plus
+     * one, have been matched.
+     */
+    private static final int SUPERSEDED_CHECK_MASK = 0x1F;
 
     private static final String TAG = "LaunchableAdapter";
 
     /**
-     * The {@link Filter} used by this list {@code Adapter}.
+     * Merges the pending batches on the UI thread, at most once per frame.
+     */
+    private final FrameBatchScheduler mBatchMerger;
+
+    /**
+     * Synchronize to this lock when accessing {@link #mBatchPreferences}.
+     */
+    private final Object mBatchPreferencesLock = new Object();
+
+    /**
+     * The {@link Filter} used by {@link #filter(CharSequence)}, whose outdated passes are
+     * abandoned.
      */
-    private final LaunchableFilter mFilter = new LaunchableFilter();
+    private final LaunchableFilter mFilter = new LaunchableFilter(true);
+
+    private final IconCache mIconCache;
+
+    private final IconDiskCache mIconDiskCache;
+
+    private final IconLoadScheduler mIconLoadScheduler;
 
     /**
      * The size of the icons to load, in pixels, if enabled.
      */
     private final int mIconSizePixels;
 
-    private final SimpleTaskConsumerManager mImageLoadingConsumersManager;
+    private final IconBatchDelivery mIconDelivery;
 
     private final ImageLoadingTask.Factory mImageTasks;
 
     /**
-     * Lock used to modify the content of {@link #mObjects}. Any write operation
-     * performed on the array should be synchronized on this lock. This lock is also
-     * used by the filter (see {@link #getFilter()} to make a synchronized copy of
-     * the original array of data.
+     * The trigram index of the search keys of the current values, by search id, guarded by
+     * {@link #mLock}. Each snapshot holds a frozen copy of it.
      */
-    private final Object mLock = new Object();
+    private final TrigramIndex mIndex = new TrigramIndex();
 
     /**
-     * Contains the list of objects that represent the data of this ArrayAdapter.
-     * The content of this list is referred to as "the array" in the documentation.
+     * The index of the first trigram of the initials of the current values, by search id,
+     * guarded by {@link #mLock}. Each snapshot holds a frozen copy of it.
      */
-    private final List<T> mObjects;
+    private final TrigramIndex mInitialsIndex = new TrigramIndex();
+
+    private final SharedLauncherPrefs mLauncherPrefs;
+
+    /**
+     * Lock used to serialize modifications of the array, and access to {@link #mIndex} and
+     * {@link #mInitialsIndex}. Readers of {@link #mSnapshot}, including the filter, never need
+     * to synchronize on this lock.
+     */
+    private final Object mLock = new Object();
 
     /**
      * This field contains the database used to store persistent values for
@@ -121,6 +192,32 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     private final LaunchableActivityPrefs mPrefs;
 
+    /**
+     * The launchables added by {@link #addBatch(Collection)} which have not been merged yet.
+     */
+    private final Queue<T> mPendingBatches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The {@link Filter} returned by {@link #getFilter()}. {@link Filter#filter(CharSequence)}
+     * can't be overridden to record the requested constraint before the pass is queued, so the
+     * passes of this filter are never abandoned, the platform only drops the queued ones.
+     */
+    private final LaunchableFilter mPublicFilter = new LaunchableFilter(false);
+
+    private final PackageResourcesCache mResourcesCache;
+
+    /**
+     * The current content of this adapter. The snapshot is immutable, modifications publish a
+     * modified copy of the current snapshot.
+     */
+    private final AtomicReference<Snapshot<T>> mSnapshot =
+            new AtomicReference<>(Snapshot.<T>empty());
+
+    /**
+     * The number of filter passes abandoned or left unpublished because they were superseded.
+     */
+    private final AtomicInteger mSkippedFilterPasses = new AtomicInteger();
+
     private final Map<String, UsageStats> mUsageMap;
 
     /**
@@ -129,15 +226,39 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     private int mDropDownResource;
 
+    /**
+     * The persistent information applied to batches, read when the first batch is added, and
+     * read again once the database was written to.
+     */
+    private Map<String, LaunchableActivityPrefs.Row> mBatchPreferences;
+
+    /**
+     * The {@link LaunchableActivityPrefs#getWriteCount()} when {@link #mBatchPreferences} was
+     * read.
+     */
+    private int mBatchPreferencesWriteCount;
+
+    /**
+     * The listener called after batches were merged, only accessed from the UI thread.
+     */
+    private OnBatchMergedListener mOnBatchMergedListener;
+
+    /**
+     * Whether the filter falls back to typo tolerant matching when nothing matches exactly.
+     */
+    private volatile boolean mFuzzySearch = true;
+
     /**
      * Indicates whether or not {@link #notifyDataSetChanged()} must be called whenever
-     * {@link #mObjects} is modified.
+     * the array is modified.
      */
     private boolean mNotifyOnChange = false;
 
-    // A copy of the original mObjects array, initialized from and then used instead as soon as
-    // the mFilter ArrayFilter is used. mObjects will then only contain the filtered values.
-    private List<T> mOriginalValues;
+    /**
+     * The constraint of the last call to {@link #filter(CharSequence)}. Filter passes for any
+     * other constraint are outdated, they are abandoned and never published.
+     */
+    private volatile String mRequestedConstraint;
 
     /**
      * Constructor
@@ -149,13 +270,20 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
     public LaunchableAdapter(@NonNull final Context context, @LayoutRes final int resource,
             final int initialSize) {
         final Resources res = context.getResources();
+        final Handler handler = new Handler(context.getMainLooper());
+
         mDropDownResource = resource;
-        mObjects = Collections.synchronizedList(new ArrayList<T>(initialSize));
         mIconSizePixels = res.getDimensionPixelSize(R.dimen.app_icon_size);
-        mImageLoadingConsumersManager =
-                new SimpleTaskConsumerManager(getOptimalNumberOfThreads(res), 300);
-        mImageTasks = new ImageLoadingTask.Factory(mIconSizePixels);
-        mPrefs = new LaunchableActivityPrefs(context);
+        mLauncherPrefs = new SharedLauncherPrefs(context.getApplicationContext());
+        mIconLoadScheduler = new IconLoadScheduler(getFirstScreenSize(res));
+        mIconCache = IconCache.getInstance(context);
+        mIconDiskCache = IconDiskCache.getInstance(context);
+        mResourcesCache = PackageResourcesCache.getInstance(context);
+        mIconDelivery = new IconBatchDelivery(handler);
+        mBatchMerger = new FrameBatchScheduler(handler, new BatchMerger());
+        mImageTasks = new ImageLoadingTask.Factory(mIconSizePixels, mIconCache, mIconDiskCache,
+                mResourcesCache, mIconDelivery);
+        mPrefs = LaunchableActivityPrefs.acquire(context);
         mUsageMap = new HashMap<>(0);
         mUsageMap.putAll(getUsageStats(context));
     }
@@ -174,26 +302,21 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         this(context, resource, ((List<? extends T>[]) object)[0].size());
 
         final List<? extends T>[] lists = (List<? extends T>[]) object;
-        mObjects.addAll(lists[0]);
+        final List<T> originalValues;
 
-        if (lists[1] != null) {
-            mOriginalValues = (List<T>) lists[1];
+        if (lists[1] == null) {
+            originalValues = null;
+        } else {
+            originalValues = Collections.unmodifiableList(new ArrayList<T>(lists[1]));
         }
-    }
 
-    private static int getOptimalNumberOfThreads(final Resources resources) {
-        final int numOfCores = Runtime.getRuntime().availableProcessors();
-        final int maxThreads = resources.getInteger(R.integer.max_imageloading_threads);
-        int numThreads = numOfCores - 1;
+        final List<T> objects = Collections.unmodifiableList(new ArrayList<T>(lists[0]));
 
-        //clamp numThreads
-        if (numThreads < 1) {
-            numThreads = 1;
-        } else if (numThreads > maxThreads) {
-            numThreads = maxThreads;
+        synchronized (mLock) {
+            indexAppended(originalValues == null ? objects : originalValues, 0);
+            mSnapshot.set(new Snapshot<>(objects, originalValues, 0, mIndex.freeze(),
+                    mInitialsIndex.freeze()));
         }
-
-        return numThreads;
     }
 
     /**
@@ -230,11 +353,11 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         mPrefs.setPreferences(object);
 
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                mObjects.add(object);
-            } else {
-                mOriginalValues.add(object);
-            }
+            final List<T> current = copyCurrent();
+
+            current.add(object);
+            indexAppended(current, current.size() - 1);
+            publishCurrent(current);
         }
         if (mNotifyOnChange) {
             notifyDataSetChanged();
@@ -257,17 +380,9 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      *                                       this list
      */
     public void addAll(@NonNull final Collection<? extends T> collection) {
-        for (final T toAdd : collection) {
-            mPrefs.setPreferences(toAdd);
-        }
+        mPrefs.setPreferences(collection);
 
-        synchronized (mLock) {
-            if (mOriginalValues == null) {
-                mObjects.addAll(collection);
-            } else {
-                mOriginalValues.addAll(collection);
-            }
-        }
+        appendAll(collection);
         if (mNotifyOnChange) {
             notifyDataSetChanged();
         }
@@ -279,32 +394,64 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      * @param items The items to add at the end of the array.
      */
     public void addAll(final T... items) {
-        for (final T toAdd : items) {
-            mPrefs.setPreferences(toAdd);
-        }
+        mPrefs.setPreferences(Arrays.asList(items));
 
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                Collections.addAll(mObjects, items);
-            } else {
-                Collections.addAll(mOriginalValues, items);
-            }
+            final List<T> current = copyCurrent();
+            final int start = current.size();
+
+            Collections.addAll(current, items);
+            indexAppended(current, start);
+            publishCurrent(current);
         }
         if (mNotifyOnChange) {
             notifyDataSetChanged();
         }
     }
 
+    /**
+     * This method adds a batch of objects to the array, from any thread.
+     *
+     * Batches are merged on the UI thread at most once per frame, in the order of
+     * {@link #sortApps(Context)} as the array is expected to be sorted, and each merge notifies
+     * about the change once, after the {@link OnBatchMergedListener} was called.
+     *
+     * The persistent information of the objects is read when the first batch is added, and
+     * only read again if the launch statistics were written since.
+     *
+     * @param batch The objects to add to the array.
+     */
+    public void addBatch(@NonNull final Collection<? extends T> batch) {
+        LaunchableActivityPrefs.setPreferences(getBatchPreferences(), batch);
+        mPendingBatches.addAll(batch);
+        mBatchMerger.schedule();
+    }
+
+    /**
+     * This method adds objects at the end of the array, without updating them from the
+     * preferences or notifying about the change.
+     *
+     * @param collection The objects to add at the end of the array.
+     */
+    private void appendAll(final Collection<? extends T> collection) {
+        synchronized (mLock) {
+            final List<T> current = copyCurrent();
+            final int start = current.size();
+
+            current.addAll(collection);
+            indexAppended(current, start);
+            publishCurrent(current);
+        }
+    }
+
     /**
      * Remove all elements from the list.
      */
     public void clear() {
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                mObjects.clear();
-            } else {
-                mOriginalValues.clear();
-            }
+            mIndex.clear();
+            mInitialsIndex.clear();
+            publishCurrent(new ArrayList<T>(0));
         }
         if (mNotifyOnChange) {
             notifyDataSetChanged();
@@ -312,15 +459,21 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
     }
 
     public void clearCaches() {
-        for (final LaunchableActivity activity : mObjects) {
-            activity.deleteActivityIcon();
-        }
+        mIconCache.clear();
+        mResourcesCache.clear();
+    }
 
-        if (mOriginalValues != null) {
-            for (final LaunchableActivity activity : mOriginalValues) {
-                activity.deleteActivityIcon();
-            }
-        }
+    /**
+     * This method returns a modifiable copy of the current values, the values modifications of
+     * the array apply to.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @return A copy of the current values, to be published with
+     * {@link #publishCurrent(List)}.
+     */
+    private List<T> copyCurrent() {
+        return new ArrayList<>(mSnapshot.get().getCurrent());
     }
 
     /**
@@ -331,7 +484,9 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      * @return An object used to restore the state of this Adapter.
      */
     public Object export() {
-        return new List<?>[]{mObjects, mOriginalValues};
+        final Snapshot<T> snapshot = mSnapshot.get();
+
+        return new List<?>[]{snapshot.mObjects, snapshot.mOriginalValues};
     }
 
     /**
@@ -359,6 +514,25 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         return lastUsed;
     }
 
+    /**
+     * This method returns the persistent information applied to batches, reading it the first
+     * time and whenever the database was written to since.
+     *
+     * @return The persistent information, by class name.
+     */
+    private Map<String, LaunchableActivityPrefs.Row> getBatchPreferences() {
+        synchronized (mBatchPreferencesLock) {
+            final int writeCount = mPrefs.getWriteCount();
+
+            if (mBatchPreferences == null || mBatchPreferencesWriteCount != writeCount) {
+                mBatchPreferences = mPrefs.getAllPreferences();
+                mBatchPreferencesWriteCount = writeCount;
+            }
+
+            return mBatchPreferences;
+        }
+    }
+
     /**
      * Returns the position of a {@link LaunchableActivity} where the
      * {@link LaunchableActivity#getComponent()}.{@link ComponentName#getClassName()} is equal to
@@ -368,15 +542,9 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      * @return The LaunchableActivity matching the classname parameter, {@code -1} if not found.
      */
     public int getClassNamePosition(@NonNull final String className) {
-        final List<T> current;
+        final List<T> current = mSnapshot.get().getCurrent();
         int position = -1;
 
-        if (mOriginalValues == null) {
-            current = mObjects;
-        } else {
-            current = mOriginalValues;
-        }
-
         final int currentSize = current.size();
         for (int i = 0; i < currentSize && position == -1; i++) {
             if (current.get(i).getComponent().getClassName().equals(className)) {
@@ -389,7 +557,7 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
 
     @Override
     public int getCount() {
-        return mObjects.size();
+        return mSnapshot.get().mObjects.size();
     }
 
     @Override
@@ -410,19 +578,55 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         return text;
     }
 
+    /**
+     * This method filters this adapter with a constraint, superseding any filter pass which is
+     * still in progress. Results of superseded passes are never published.
+     *
+     * @param constraint The constraint to filter with.
+     */
+    public void filter(@Nullable final CharSequence constraint) {
+        if (constraint == null) {
+            mRequestedConstraint = null;
+        } else {
+            mRequestedConstraint = constraint.toString();
+        }
+
+        mFilter.filter(constraint);
+    }
+
     /**
      * <p>Returns a filter that can be used to constrain data with a filtering
      * pattern.</p>
      * <p>
      * <p>This method is usually implemented by {@link android.widget.Adapter}
      * classes.</p>
+     * <p>Constraints should be given to {@link #filter(CharSequence)}, rather than to the
+     * returned filter, for outdated filter passes to be superseded. Passes of the returned
+     * filter always publish their results.</p>
      *
      * @return a filter used to constrain data
      */
     @NonNull
     @Override
     public Filter getFilter() {
-        return mFilter;
+        return mPublicFilter;
+    }
+
+    /**
+     * This method returns the number of launchables which fit on the first screen of the grid.
+     *
+     * @param resources The resources for the device.
+     * @return The number of launchables on the first screen.
+     */
+    public static int getFirstScreenSize(final Resources resources) {
+        final DisplayMetrics metrics = resources.getDisplayMetrics();
+        final int columnWidth = resources.getDimensionPixelSize(R.dimen.app_row_column_width) +
+                resources.getDimensionPixelSize(R.dimen.app_row_horizontal_spacing);
+        final int rowHeight = resources.getDimensionPixelSize(R.dimen.app_row_column_height) +
+                resources.getDimensionPixelSize(R.dimen.app_row_vertical_spacing);
+
+        return Math.max(1, metrics.widthPixels / columnWidth) *
+                Math.max(1, metrics.heightPixels / rowHeight);
     }
 
     /**
@@ -439,7 +643,7 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
     @Nullable
     @Override
     public T getItem(final int position) {
-        return mObjects.get(position);
+        return mSnapshot.get().mObjects.get(position);
     }
 
     /**
@@ -453,6 +657,47 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         return position;
     }
 
+    /**
+     * This method returns the number of icon loads merged into a load of the same icon already
+     * in progress, which is the number of duplicate decodes avoided.
+     *
+     * @return The number of merged icon loads.
+     */
+    public int getMergedIconLoads() {
+        return mIconLoadScheduler.getMergedCount();
+    }
+
+    /**
+     * This method returns the order {@link #sortApps(Context)} sorts the array in, as a single
+     * comparator.
+     *
+     * @return The order of the launchables.
+     */
+    private Comparator<LaunchableActivity> getOrder() {
+        final Comparator<LaunchableActivity> order;
+
+        if (mLauncherPrefs.isOrderedByRecent()) {
+            order = new ChainedOrder(PIN_TO_TOP, RECENT, ALPHABETICAL);
+        } else if (mLauncherPrefs.isOrderedByUsage()) {
+            order = new ChainedOrder(PIN_TO_TOP, USAGE, ALPHABETICAL);
+        } else {
+            order = new ChainedOrder(PIN_TO_TOP, ALPHABETICAL);
+        }
+
+        return order;
+    }
+
+    /**
+     * This method returns the number of filter passes which were abandoned, or whose results
+     * were not published, because a newer constraint was requested. Passes still in progress
+     * are not counted.
+     *
+     * @return The number of skipped filter passes.
+     */
+    public int getSkippedFilterPasses() {
+        return mSkippedFilterPasses.get();
+    }
+
     /**
      * Returns the position of a {@link LaunchableActivity} where the
      * {@link LaunchableActivity#getComponent()}.{@link ComponentName#getPackageName()} is
@@ -462,15 +707,9 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      * @return The LaunchableActivity matching the classname parameter, {@code -1} if not found.
      */
     public int getPackageNamePosition(@NonNull final String packageName) {
-        final List<T> current;
+        final List<T> current = mSnapshot.get().getCurrent();
         int position = -1;
 
-        if (mOriginalValues == null) {
-            current = mObjects;
-        } else {
-            current = mOriginalValues;
-        }
-
         final int currentSize = current.size();
         for (int i = 0; i < currentSize && position == -1; i++) {
             if (current.get(i).getComponent().getPackageName().equals(packageName)) {
@@ -529,10 +768,7 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         }
 
         view.setVisibility(View.VISIBLE);
-        final LaunchableActivity launchableActivity;
-        synchronized (mLock) {
-            launchableActivity = getItem(position);
-        }
+        final LaunchableActivity launchableActivity = getItem(position);
         final CharSequence label = launchableActivity.toString();
         final TextView appLabelView = view.findViewById(R.id.appLabel);
         final ImageView appIconView = view.findViewById(R.id.appIcon);
@@ -540,17 +776,29 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
 
         appLabelView.setText(label);
 
+        final Drawable icon =
+                mIconCache.get(new IconCache.Key(launchableActivity, mIconSizePixels));
+        final IconLoadScheduler.Request previousRequest =
+                (IconLoadScheduler.Request) appIconView.getTag(R.id.icon_load_request);
+        IconLoadScheduler.Request request = null;
+
+        // The view may be recycled, its previous icon isn't needed anymore.
+        if (previousRequest != null) {
+            previousRequest.cancel();
+        }
+
         appIconView.setTag(launchableActivity);
-        if (launchableActivity.isIconLoaded()) {
-            appIconView.setImageDrawable(
-                    launchableActivity.getActivityIcon(parent.getContext(), mIconSizePixels));
+        if (icon != null) {
+            appIconView.setImageDrawable(icon);
         } else {
             final SharedLauncherPrefs prefs = new SharedLauncherPrefs(parent.getContext());
             if (prefs.areIconsEnabled()) {
-                mImageLoadingConsumersManager.addTask(mImageTasks.create(appIconView,
-                        launchableActivity));
+                request = mIconLoadScheduler.submit(
+                        mImageTasks.create(appIconView, launchableActivity, position),
+                        appIconView);
             }
         }
+        appIconView.setTag(R.id.icon_load_request, request);
 
         if (launchableActivity.getPriority() > 0) {
             appPinToTop.setVisibility(View.VISIBLE);
@@ -561,6 +809,39 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         return view;
     }
 
+    /**
+     * This method adds an object to the search indexes.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @param object The object to index.
+     */
+    private void index(final T object) {
+        final String initials = object.getInitials();
+
+        mIndex.add(object.getSearchId(), object.getSearchKey());
+        if (initials.length() >= TrigramIndex.GRAM_LENGTH) {
+            mInitialsIndex.add(object.getSearchId(),
+                    initials.substring(0, TrigramIndex.GRAM_LENGTH));
+        }
+    }
+
+    /**
+     * This method indexes the objects appended to the current values.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @param current The current values.
+     * @param start   The position of the first appended object.
+     */
+    private void indexAppended(final List<T> current, final int start) {
+        final int size = current.size();
+
+        for (int i = start; i < size; i++) {
+            index(current.get(i));
+        }
+    }
+
     /**
      * Inserts the specified object at the specified index in the array.
      *
@@ -571,17 +852,87 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         mPrefs.setPreferences(object);
 
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                mObjects.add(index, object);
-            } else {
-                mOriginalValues.add(index, object);
-            }
+            final List<T> current = copyCurrent();
+
+            current.add(index, object);
+            index(object);
+            publishCurrent(current);
         }
         if (mNotifyOnChange) {
             notifyDataSetChanged();
         }
     }
 
+    /**
+     * This method drops the cached icons and Resources of a package, after it was updated or
+     * removed. The icons cached on disk are deleted in the background.
+     *
+     * @param packageName The name of the package.
+     */
+    public void invalidateIcons(@NonNull final String packageName) {
+        mIconCache.remove(packageName);
+        mResourcesCache.remove(packageName);
+        TaskScheduler.getInstance().submit(new SimpleTaskConsumerManager.Task() {
+            @Override
+            public boolean doTask() {
+                mIconDiskCache.invalidate(packageName);
+
+                return true;
+            }
+        }, TaskScheduler.LANE_BACKGROUND);
+    }
+
+    /**
+     * This method sorts a batch the way {@link #sortApps(Context)} sorts the array, and merges
+     * it into the array, which is sorted already, so the array doesn't need to be sorted again.
+     *
+     * @param batch The objects to add, whose persistent information was applied.
+     */
+    private void mergeBatch(final List<T> batch) {
+        final Comparator<LaunchableActivity> order = getOrder();
+
+        if (!mLauncherPrefs.isOrderedByAlphabetical()) {
+            for (final T object : batch) {
+                updateLaunchableStats(object);
+            }
+        }
+        Collections.sort(batch, order);
+
+        synchronized (mLock) {
+            final List<T> current = mSnapshot.get().getCurrent();
+            final List<T> merged = new ArrayList<>(current.size() + batch.size());
+            int i = 0;
+            int j = 0;
+
+            while (i < current.size() || j < batch.size()) {
+                // Keep the current values ahead of equal ones.
+                if (j == batch.size() ||
+                        (i < current.size() && order.compare(current.get(i), batch.get(j)) <= 0)) {
+                    merged.add(current.get(i));
+                    i++;
+                } else {
+                    merged.add(batch.get(j));
+                    j++;
+                }
+            }
+
+            for (final T object : batch) {
+                index(object);
+            }
+            publishCurrent(merged);
+        }
+    }
+
+    /**
+     * This method merges the batches added by {@link #addBatch(Collection)} now, instead of
+     * waiting for the scheduled merge, such as before this adapter is exported.
+     *
+     * This must be called from the UI thread.
+     */
+    public void mergePendingBatches() {
+        mBatchMerger.runNow();
+    }
+
     /**
      * Notifies the attached observers that the underlying data has been changed
      * and any View reflecting the data set should refresh itself.
@@ -595,27 +946,48 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
 
     /**
      * This method should be called before the parent context is destroyed.
+     *
+     * Batches which were added but not merged yet are kept, see
+     * {@link #removePendingBatches()}.
      */
     public void onDestroy() {
-        mPrefs.close();
+        mPrefs.release();
+        mBatchMerger.cancel();
 
-        if (mImageLoadingConsumersManager != null) {
-            mImageLoadingConsumersManager.destroyAllConsumers(false);
-        }
+        mIconLoadScheduler.shutdown();
+        mIconDelivery.cancel();
+    }
+
+    /**
+     * This method publishes the modified copy of the current values.
+     *
+     * This must be called with {@link #mLock} held. The snapshot may still be replaced
+     * concurrently by the filter, which doesn't take the lock, so this retries until the
+     * modification is published. The snapshot holds frozen copies of the search indexes, as
+     * modified along with the values.
+     *
+     * @param current The modified copy of the current values, from {@link #copyCurrent()}. This
+     *                must not be modified after this call.
+     */
+    private void publishCurrent(final List<T> current) {
+        final TrigramIndex index = mIndex.freeze();
+        final TrigramIndex initialsIndex = mInitialsIndex.freeze();
+        Snapshot<T> snapshot;
+
+        do {
+            snapshot = mSnapshot.get();
+        } while (!mSnapshot.compareAndSet(snapshot,
+                snapshot.withCurrent(current, index, initialsIndex)));
     }
 
     public boolean remove(final int index) {
-        final List<T> current;
         final T result;
 
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                current = mObjects;
-            } else {
-                current = mOriginalValues;
-            }
+            final List<T> current = copyCurrent();
 
-            result = current.remove(index);
+            result = removeFromOriginal(current, index);
+            publishCurrent(current);
         }
 
         if (mNotifyOnChange) {
@@ -632,10 +1004,65 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     public void remove(@Nullable final T object) {
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                mObjects.remove(object);
-            } else {
-                mOriginalValues.remove(object);
+            final List<T> current = copyCurrent();
+            final int index = current.indexOf(object);
+
+            if (index != -1) {
+                removeFromOriginal(current, index);
+                publishCurrent(current);
+            }
+        }
+
+        if (mNotifyOnChange) {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * This method removes an object from a copy of the current values, and from the index.
+     *
+     * This must be called with {@link #mLock} held.
+     *
+     * @param current The copy of the current values.
+     * @param index   The position of the object to remove.
+     * @return The removed object.
+     */
+    private T removeFromOriginal(final List<T> current, final int index) {
+        final T result = current.remove(index);
+
+        mIndex.remove(result.getSearchId());
+        mInitialsIndex.remove(result.getSearchId());
+
+        return result;
+    }
+
+    /**
+     * This method removes objects from the array, updating the search indexes once rather than
+     * once per object.
+     *
+     * @param objects The objects to remove.
+     */
+    public void removeAll(@NonNull final Collection<? extends T> objects) {
+        synchronized (mLock) {
+            final Collection<T> removed = new HashSet<>(objects);
+            final List<T> current = mSnapshot.get().getCurrent();
+            final List<T> kept = new ArrayList<>(current.size());
+            final int[] searchIds = new int[current.size()];
+            int count = 0;
+
+            for (final T object : current) {
+                if (removed.contains(object)) {
+                    searchIds[count] = object.getSearchId();
+                    count++;
+                } else {
+                    kept.add(object);
+                }
+            }
+
+            if (count != 0) {
+                mIndex.removeAll(Arrays.copyOf(searchIds, count));
+                mInitialsIndex.removeAll(Arrays.copyOf(searchIds, count));
+                publishCurrent(kept);
             }
         }
 
@@ -660,23 +1087,18 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      *
      * Some packages install activities with duplicate names (see Google Drive/Google Sheets).
      *
-     * This method should not be part of this class, but we rely on locking the collections during
-     * this critical method.
+     * This method should not be part of this class, but we rely on publishing the collections
+     * atomically during this critical method.
      *
      * @param name The name. See the description for more information.
      * @return The number of packages removed by this method.
      */
     public int removeAllByName(@NonNull final String name) {
         ComponentName component;
-        final List<T> current;
         int removedCount = 0;
 
         synchronized (mLock) {
-            if (mOriginalValues == null) {
-                current = mObjects;
-            } else {
-                current = mOriginalValues;
-            }
+            final List<T> current = copyCurrent();
 
             for (int i = current.size() - 1; i >= 0; i--) {
                 //noinspection ConstantConditions
@@ -685,14 +1107,18 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
                 if (component.getClassName().startsWith(name)) {
                     Log.d(TAG, "Removing " + name +
                             " by starting with classname: " + component.getClassName());
-                    current.remove(i);
+                    removeFromOriginal(current, i);
                     removedCount++;
                 } else if (component.getPackageName().equals(name)) {
                     Log.d(TAG, "Found position of " + name);
-                    current.remove(i);
+                    removeFromOriginal(current, i);
                     removedCount++;
                 }
             }
+
+            if (removedCount != 0) {
+                publishCurrent(current);
+            }
         }
 
         if (mNotifyOnChange) {
@@ -702,6 +1128,24 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         return removedCount;
     }
 
+    /**
+     * This method removes the batches added by {@link #addBatch(Collection)} which were not
+     * merged yet, to add them to another adapter.
+     *
+     * @return The removed objects, in the order they were added.
+     */
+    @NonNull
+    public List<T> removePendingBatches() {
+        final List<T> pending = new ArrayList<>(mPendingBatches.size());
+        T object;
+
+        while ((object = mPendingBatches.poll()) != null) {
+            pending.add(object);
+        }
+
+        return pending;
+    }
+
     /**
      * <p>Sets the layout resource to create the drop down views.</p>
      *
@@ -730,6 +1174,39 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         mNotifyOnChange = notifyOnChange;
     }
 
+    /**
+     * This method sets the listener called after batches added by {@link #addBatch(Collection)}
+     * were merged, before the change is notified.
+     *
+     * This must be called from the UI thread.
+     *
+     * @param listener The listener, {@code null} for none.
+     */
+    public void setOnBatchMergedListener(@Nullable final OnBatchMergedListener listener) {
+        mOnBatchMergedListener = listener;
+    }
+
+    /**
+     * This method sets whether search falls back to typo tolerant matching when no launchable
+     * matches the query exactly.
+     *
+     * @param fuzzySearch {@code true} to enable typo tolerant matching, {@code false} otherwise.
+     */
+    public void setFuzzySearchEnabled(final boolean fuzzySearch) {
+        mFuzzySearch = fuzzySearch;
+    }
+
+    /**
+     * This method sets the range of the visible positions of the grid, icons are loaded for them
+     * first.
+     *
+     * @param firstVisible The first visible position.
+     * @param visibleCount The number of visible positions.
+     */
+    public void setVisibleRange(final int firstVisible, final int visibleCount) {
+        mIconLoadScheduler.setVisibleRange(firstVisible, visibleCount);
+    }
+
     /**
      * Sorts the content of this adapter using the specified comparator.
      *
@@ -738,10 +1215,11 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     public void sort(@NonNull final Comparator<? super T> comparator) {
         synchronized (mLock) {
-            Collections.sort(mObjects, comparator);
-            if (mOriginalValues != null) {
-                Collections.sort(mOriginalValues, comparator);
-            }
+            Snapshot<T> snapshot;
+
+            do {
+                snapshot = mSnapshot.get();
+            } while (!mSnapshot.compareAndSet(snapshot, snapshot.sortedBy(comparator)));
         }
 
         if (mNotifyOnChange) {
@@ -754,14 +1232,8 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     public void sortApps(final Context context) {
         final SharedLauncherPrefs prefs = new SharedLauncherPrefs(context);
-        final Collection<T> launchables;
-
         if (!prefs.isOrderedByAlphabetical()) {
-            if (mOriginalValues == null) {
-                launchables = mObjects;
-            } else {
-                launchables = mOriginalValues;
-            }
+            final Collection<T> launchables = mSnapshot.get().getCurrent();
 
             for (final T launchable : launchables) {
                 updateLaunchableStats(launchable);
@@ -795,15 +1267,7 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     @Override
     public String toString() {
-        final String toString;
-
-        if (mOriginalValues == null) {
-            toString = mObjects.toString();
-        } else {
-            toString = mOriginalValues.toString();
-        }
-
-        return toString;
+        return mSnapshot.get().getCurrent().toString();
     }
 
     /**
@@ -833,6 +1297,44 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
         mUsageMap.putAll(getUsageStats(context));
     }
 
+    /**
+     * This interface is called after batches were merged into a {@link LaunchableAdapter}.
+     */
+    public interface OnBatchMergedListener {
+
+        /**
+         * Called on the UI thread after batches were merged, before the change is notified.
+         */
+        void onBatchMerged();
+    }
+
+    /**
+     * This class merges the pending batches into the array, on the UI thread.
+     */
+    private final class BatchMerger implements Runnable {
+
+        @Override
+        public void run() {
+            final List<T> batch = new ArrayList<>(mPendingBatches.size());
+            T pending;
+
+            while ((pending = mPendingBatches.poll()) != null) {
+                batch.add(pending);
+            }
+
+            if (!batch.isEmpty()) {
+                mNotifyOnChange = false;
+                mergeBatch(batch);
+
+                if (mOnBatchMergedListener != null) {
+                    mOnBatchMergedListener.onBatchMerged();
+                }
+
+                notifyDataSetChanged();
+            }
+        }
+    }
+
     /**
      * <p>An array filter constrains the content of the array adapter with
      * a prefix. Each item that does not start with the supplied prefix
@@ -840,68 +1342,522 @@ public class LaunchableAdapter<T extends LaunchableActivity> extends BaseAdapter
      */
     private final class LaunchableFilter extends Filter {
 
+        /**
+         * The typo tolerant matcher, reused for each constraint.
+         */
+        private final FuzzyMatcher mFuzzyMatcher = new FuzzyMatcher();
+
+        /**
+         * Whether the passes of this filter are abandoned once a newer constraint was given to
+         * {@link #filter(CharSequence)}.
+         */
+        private final boolean mSupersedable;
+
+        /**
+         * The selection of the best matches, reused for each constraint.
+         */
+        private final TopKSelector<T> mSelector =
+                new TopKSelector<>(RANKED_RESULTS, SEARCH_RELEVANCE);
+
+        /**
+         * The normalized constraint which produced {@link #mLastMatches}.
+         */
+        private String mLastConstraint;
+
+        /**
+         * The matches from the last filtered constraint, in the order of the original values.
+         */
+        private List<T> mLastMatches;
+
+        /**
+         * The modification count of the snapshot {@link #mLastMatches} was filtered from.
+         */
+        private int mLastModificationCount;
+
+        /**
+         * Constructor
+         *
+         * @param supersedable Whether the passes of this filter are abandoned once a newer
+         *                     constraint was given to {@link #filter(CharSequence)}.
+         */
+        private LaunchableFilter(final boolean supersedable) {
+            mSupersedable = supersedable;
+        }
+
+        /**
+         * This method matches all the original values against a constraint, tolerating typos.
+         *
+         * Matches are offered to {@link #mSelector}, scored by their edit distance.
+         *
+         * @param values     The original values.
+         * @param constraint The normalized constraint.
+         * @param request    The constraint of this filter pass, as requested.
+         * @return The matches, in the order of the original values, {@code null} if this filter
+         * pass was superseded.
+         */
+        private List<T> filterFuzzy(final List<T> values, final String constraint,
+                final CharSequence request) {
+            final List<T> matches = new ArrayList<>();
+            final int maxTypos = Math.max(1, Math.min(FUZZY_MAX_TYPOS,
+                    constraint.length() / FUZZY_CHARACTERS_PER_TYPO));
+
+            mFuzzyMatcher.setPattern(constraint);
+            final int count = values.size();
+            for (int i = 0; i < count; i++) {
+                if ((i & SUPERSEDED_CHECK_MASK) == 0 && isSuperseded(request)) {
+                    return null;
+                }
+
+                final T value = values.get(i);
+                final int typos = mFuzzyMatcher.distance(value.getSearchKey(), 0);
+
+                if (typos <= maxTypos) {
+                    mSelector.offer(value, MatchScorer.FUZZY + typos, matches.size());
+                    matches.add(value);
+                }
+            }
+
+            return matches;
+        }
+
+        /**
+         * This method matches values against a constraint.
+         *
+         * Matches are offered to {@link #mSelector}, scored by {@link MatchScorer}.
+         *
+         * @param values     The values to match.
+         * @param constraint The normalized constraint.
+         * @param request    The constraint of this filter pass, as requested.
+         * @return The matches, in the order of {@code values}, {@code null} if this filter pass
+         * was superseded.
+         */
+        private List<T> filterValues(final List<T> values, final String constraint,
+                final CharSequence request) {
+            final int count = values.size();
+            final List<T> matches = new ArrayList<>();
+
+            for (int i = 0; i < count; i++) {
+                if ((i & SUPERSEDED_CHECK_MASK) == 0 && isSuperseded(request)) {
+                    return null;
+                }
+
+                final T value = values.get(i);
+                final int score = MatchScorer.score(value.getSearchKey(), value.getInitials(),
+                        constraint);
+
+                if (score != MatchScorer.NO_MATCH) {
+                    mSelector.offer(value, score, matches.size());
+                    matches.add(value);
+                }
+            }
+
+            return matches;
+        }
+
+        /**
+         * This method returns whether typo tolerant matching should be attempted for a
+         * constraint.
+         *
+         * @param constraint The normalized constraint.
+         * @return {@code true} if typo tolerant matching is enabled and suitable for the
+         * constraint, {@code false} otherwise.
+         */
+        private boolean isFuzzyConstraint(final String constraint) {
+            final int length = constraint.length();
+
+            return mFuzzySearch && length >= FUZZY_MIN_QUERY_LENGTH &&
+                    length <= FuzzyMatcher.MAX_PATTERN_LENGTH;
+        }
+
+        /**
+         * This method returns whether the last matches can be narrowed down to the matches of
+         * {@code constraint}, rather than filtering all the original values.
+         *
+         * Any match for a constraint is also a match for every prefix of the constraint, so this
+         * is only possible when the new constraint extends the last one and the array hasn't
+         * been modified since.
+         *
+         * @param constraint        The normalized constraint about to be filtered.
+         * @param modificationCount The modification count of the current snapshot.
+         * @return {@code true} if the last matches can be narrowed, {@code false} otherwise.
+         */
+        private boolean isNarrowing(final String constraint, final int modificationCount) {
+            return mLastConstraint != null && mLastModificationCount == modificationCount &&
+                    constraint.startsWith(mLastConstraint);
+        }
+
+        /**
+         * This method returns whether a filter pass was superseded by a newer request.
+         *
+         * @param constraint The constraint of the filter pass.
+         * @return {@code true} if the filter pass is outdated, {@code false} otherwise.
+         */
+        private boolean isSuperseded(final CharSequence constraint) {
+            return mSupersedable && !TextUtils.equals(constraint, mRequestedConstraint);
+        }
+
         @Override
         protected FilterResults performFiltering(final CharSequence constraint) {
-            final List<T> values;
             final FilterResults results = new FilterResults();
-
-            // Don't act upon a blank constraint if the filter hasn't been used yet.
-            if (mOriginalValues == null && constraint.length() == 0) {
-                results.values = mObjects;
-                results.count = mObjects.size();
+            Snapshot<T> snapshot = mSnapshot.get();
+
+            if (isSuperseded(constraint)) {
+                // Leave the results empty, they will not be published.
+                Log.v(TAG, "Abandoning filter pass for: " + constraint);
+            } else if (snapshot.mOriginalValues == null && constraint.length() == 0) {
+                // Don't act upon a blank constraint if the filter hasn't been used yet.
+                results.values = snapshot.mObjects;
+                results.count = snapshot.mObjects.size();
             } else {
-                if (mOriginalValues == null) {
-                    synchronized (mLock) {
-                        mOriginalValues = new ArrayList<>(mObjects);
-                    }
+                while (snapshot.mOriginalValues == null) {
+                    // Whether this or a concurrent modification wins, retry with the latest.
+                    mSnapshot.compareAndSet(snapshot, snapshot.withOriginalValues());
+                    snapshot = mSnapshot.get();
                 }
 
-                synchronized (mLock) {
-                    values = new ArrayList<>(mOriginalValues);
-                }
-                final int count = values.size();
                 if (constraint == null || constraint.length() == 0) {
-                    results.values = values;
-                    results.count = count;
+                    mLastConstraint = null;
+                    mLastMatches = null;
+                    results.values = snapshot.mOriginalValues;
+                    results.count = snapshot.mOriginalValues.size();
                 } else {
-                    final String prefixString = stripAccents(constraint).toLowerCase();
-                    final Collection<T> newValues = new ArrayList<>();
+                    final String prefixString = SearchKeys.normalize(constraint);
+                    final List<T> values;
+
+                    if (isNarrowing(prefixString, snapshot.mModificationCount)) {
+                        values = mLastMatches;
+                    } else if (prefixString.length() >= TrigramIndex.GRAM_LENGTH) {
+                        values = snapshot.getOriginalValues(
+                                queryIndexes(snapshot, prefixString));
+                    } else {
+                        values = snapshot.mOriginalValues;
+                    }
+
+                    final List<T> newValues = filterValues(values, prefixString, constraint);
+
+                    if (newValues != null) {
+                        mLastConstraint = prefixString;
+                        mLastMatches = newValues;
+                        mLastModificationCount = snapshot.mModificationCount;
 
-                    for (int i = 0; i < count; i++) {
-                        final T value = values.get(i);
+                        if (newValues.isEmpty() && isFuzzyConstraint(prefixString)) {
+                            final List<T> fuzzyValues = filterFuzzy(snapshot.mOriginalValues,
+                                    prefixString, constraint);
 
-                        if (value.toString().toLowerCase().contains(prefixString)) {
-                            newValues.add(value);
+                            if (fuzzyValues != null) {
+                                results.values = rankMatches(fuzzyValues);
+                                results.count = fuzzyValues.size();
+                            }
+                        } else {
+                            results.values = rankMatches(newValues);
+                            results.count = newValues.size();
                         }
                     }
 
-                    results.values = newValues;
-                    results.count = newValues.size();
+                    // Superseded passes leave selections behind.
+                    mSelector.clear();
                 }
             }
 
+            // Only abandoned passes leave the results empty.
+            if (results.values == null) {
+                mSkippedFilterPasses.incrementAndGet();
+            }
+
             return results;
         }
 
         @Override
         protected void publishResults(final CharSequence constraint, final FilterResults results) {
-            //noinspection ObjectEquality
-            if (mObjects != results.values) {
-                mObjects.clear();
+            if (results.values == null) {
+                Log.v(TAG, "Skipping abandoned filter pass for: " + constraint);
+            } else if (isSuperseded(constraint)) {
+                Log.v(TAG, "Skipping outdated filter results for: " + constraint);
+                mSkippedFilterPasses.incrementAndGet();
+            } else {
                 //noinspection unchecked
-                mObjects.addAll((Collection<T>) results.values);
+                final List<T> values = (List<T>) results.values;
+                Snapshot<T> snapshot;
+
+                do {
+                    snapshot = mSnapshot.get();
+                    //noinspection ObjectEquality
+                } while (snapshot.mObjects != values &&
+                        !mSnapshot.compareAndSet(snapshot, snapshot.withObjects(values)));
+
+                //noinspection ObjectEquality
+                if (snapshot.mObjects != values) {
+                    if (results.count > 0) {
+                        notifyDataSetChanged();
+                    } else {
+                        notifyDataSetInvalidated();
+                    }
+                }
+            }
+        }
 
-                if (results.count > 0) {
-                    notifyDataSetChanged();
+        /**
+         * This method returns the search ids of the original values of a snapshot which contain
+         * all of the trigrams of the constraint, or whose initials start with the first trigram
+         * of the constraint.
+         *
+         * The indexes of a snapshot are frozen with its values, so this doesn't take any lock.
+         *
+         * @param snapshot   The snapshot to query the indexes of.
+         * @param constraint The normalized constraint, at least a trigram long.
+         * @return The ascending search ids of the candidates.
+         */
+        private int[] queryIndexes(final Snapshot<T> snapshot, final String constraint) {
+            final int[] keyIds = snapshot.mIndex.query(constraint);
+            final int[] initialsIds = snapshot.mInitialsIndex.query(
+                    constraint.substring(0, TrigramIndex.GRAM_LENGTH));
+            final int[] searchIds = new int[keyIds.length + initialsIds.length];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+
+            // Merge the ascending ids, once each.
+            while (i < keyIds.length || j < initialsIds.length) {
+                final int id;
+
+                if (j == initialsIds.length ||
+                        (i < keyIds.length && keyIds[i] <= initialsIds[j])) {
+                    id = keyIds[i];
+                    i++;
                 } else {
-                    notifyDataSetInvalidated();
+                    id = initialsIds[j];
+                    j++;
+                }
+
+                if (count == 0 || searchIds[count - 1] != id) {
+                    searchIds[count] = id;
+                    count++;
+                }
+            }
+
+            return Arrays.copyOf(searchIds, count);
+        }
+
+        /**
+         * This method orders the matches offered to {@link #mSelector} by relevance.
+         *
+         * @param matches The matches, in the order of the original values.
+         * @return The best matches in order of relevance, followed by the remaining matches in
+         * their original order, unmodifiable.
+         */
+        private List<T> rankMatches(final List<T> matches) {
+            final int count = matches.size();
+            final int selectedCount = mSelector.size();
+            final List<T> ranked = new ArrayList<>(count);
+            final boolean[] selected = new boolean[count];
+
+            mSelector.sort();
+            for (int i = 0; i < selectedCount; i++) {
+                ranked.add(mSelector.get(i));
+                selected[mSelector.getPosition(i)] = true;
+            }
+            mSelector.clear();
+
+            for (int i = 0; i < count; i++) {
+                if (!selected[i]) {
+                    ranked.add(matches.get(i));
+                }
+            }
+
+            return Collections.unmodifiableList(ranked);
+        }
+    }
+
+    /**
+     * This class is an immutable snapshot of the content of this adapter.
+     *
+     * The lists and the search indexes of a snapshot are never modified, a modification of the
+     * content publishes a new snapshot.
+     *
+     * @param <T> The type of the launchables.
+     */
+    private static final class Snapshot<T extends LaunchableActivity> {
+
+        /**
+         * The frozen trigram index of the search keys of the current values.
+         */
+        private final TrigramIndex mIndex;
+
+        /**
+         * The frozen index of the first trigram of the initials of the current values.
+         */
+        private final TrigramIndex mInitialsIndex;
+
+        /**
+         * The values shown by this adapter, filtered once the filter has been used.
+         */
+        private final List<T> mObjects;
+
+        /**
+         * The modification count, incremented each time the content or the order of the
+         * current values changes. The filter uses this to know when results it retained have
+         * become stale.
+         */
+        private final int mModificationCount;
+
+        /**
+         * The unfiltered values once the filter has been used, {@code null} before.
+         */
+        private final List<T> mOriginalValues;
+
+        /**
+         * The search ids of the original values, each in the upper half of a {@code long} with
+         * the position of the value in the lower half, ascending. Built by the first
+         * {@link #getOriginalValues(int[])}.
+         */
+        private volatile long[] mSearchIdPositions;
+
+        Snapshot(@NonNull final List<T> objects, @Nullable final List<T> originalValues,
+                final int modificationCount, @NonNull final TrigramIndex index,
+                @NonNull final TrigramIndex initialsIndex) {
+            mObjects = objects;
+            mOriginalValues = originalValues;
+            mModificationCount = modificationCount;
+            mIndex = index;
+            mInitialsIndex = initialsIndex;
+        }
+
+        static <T extends LaunchableActivity> Snapshot<T> empty() {
+            return new Snapshot<>(Collections.<T>emptyList(), null, 0,
+                    new TrigramIndex().freeze(), new TrigramIndex().freeze());
+        }
+
+        /**
+         * This method returns the current values, which modifications apply to.
+         *
+         * @return The original values if the filter has been used, the shown values otherwise.
+         */
+        List<T> getCurrent() {
+            final List<T> current;
+
+            if (mOriginalValues == null) {
+                current = mObjects;
+            } else {
+                current = mOriginalValues;
+            }
+
+            return current;
+        }
+
+        /**
+         * This method returns the original values with the given search ids.
+         *
+         * @param searchIds The ascending search ids of the values to return, ids of values
+         *                  which are not in the original values are ignored.
+         * @return The original values with the search ids, in their original order.
+         */
+        List<T> getOriginalValues(final int[] searchIds) {
+            long[] searchIdPositions = mSearchIdPositions;
+            final int[] positions = new int[searchIds.length];
+            final List<T> values = new ArrayList<>(searchIds.length);
+            int count = 0;
+
+            if (searchIdPositions == null) {
+                final int size = mOriginalValues.size();
+
+                searchIdPositions = new long[size];
+                for (int i = 0; i < size; i++) {
+                    searchIdPositions[i] =
+                            ((long) mOriginalValues.get(i).getSearchId() << Integer.SIZE) | i;
                 }
+                Arrays.sort(searchIdPositions);
+                mSearchIdPositions = searchIdPositions;
             }
+
+            for (final int searchId : searchIds) {
+                int index = Arrays.binarySearch(searchIdPositions, (long) searchId << Integer.SIZE);
+
+                if (index < 0) {
+                    index = -index - 1;
+                }
+
+                if (index < searchIdPositions.length &&
+                        (int) (searchIdPositions[index] >>> Integer.SIZE) == searchId) {
+                    positions[count] = (int) searchIdPositions[index];
+                    count++;
+                }
+            }
+
+            Arrays.sort(positions, 0, count);
+            for (int i = 0; i < count; i++) {
+                values.add(mOriginalValues.get(positions[i]));
+            }
+
+            return values;
+        }
+
+        /**
+         * This method returns a copy of this snapshot with its values sorted.
+         *
+         * @param comparator The comparator to sort the values with.
+         * @return The sorted snapshot.
+         */
+        Snapshot<T> sortedBy(final Comparator<? super T> comparator) {
+            final List<T> objects = new ArrayList<>(mObjects);
+            List<T> originalValues = null;
+
+            Collections.sort(objects, comparator);
+            if (mOriginalValues != null) {
+                originalValues = new ArrayList<>(mOriginalValues);
+                Collections.sort(originalValues, comparator);
+                originalValues = Collections.unmodifiableList(originalValues);
+            }
+
+            return new Snapshot<>(Collections.unmodifiableList(objects), originalValues,
+                    mModificationCount + 1, mIndex, mInitialsIndex);
+        }
+
+        /**
+         * This method returns a copy of this snapshot with new current values.
+         *
+         * @param current       The new current values, which must not be modified after this
+         *                      call.
+         * @param index         The frozen trigram index of the new current values.
+         * @param initialsIndex The frozen initials index of the new current values.
+         * @return The modified snapshot.
+         */
+        Snapshot<T> withCurrent(final List<T> current, final TrigramIndex index,
+                final TrigramIndex initialsIndex) {
+            final List<T> values = Collections.unmodifiableList(current);
+            final Snapshot<T> snapshot;
+
+            if (mOriginalValues == null) {
+                snapshot = new Snapshot<>(values, null, mModificationCount + 1, index,
+                        initialsIndex);
+            } else {
+                snapshot = new Snapshot<>(mObjects, values, mModificationCount + 1, index,
+                        initialsIndex);
+            }
+
+            return snapshot;
+        }
+
+        /**
+         * This method returns a copy of this snapshot showing other values, such as filter
+         * results.
+         *
+         * @param objects The values to show, which must not be modified.
+         * @return The modified snapshot.
+         */
+        Snapshot<T> withObjects(final List<T> objects) {
+            return new Snapshot<>(objects, mOriginalValues, mModificationCount, mIndex,
+                    mInitialsIndex);
         }
 
-        private String stripAccents(final CharSequence cs) {
-            return DIACRITICAL_MARKS.matcher(
-                    Normalizer.normalize(cs, Normalizer.Form.NFKD)).replaceAll("");
+        /**
+         * This method returns a copy of this snapshot where the shown values are also retained as
+         * the original values, as required before the first filter pass.
+         *
+         * @return The modified snapshot.
+         */
+        Snapshot<T> withOriginalValues() {
+            return new Snapshot<>(mObjects, mObjects, mModificationCount, mIndex,
+                    mInitialsIndex);
         }
     }
 }
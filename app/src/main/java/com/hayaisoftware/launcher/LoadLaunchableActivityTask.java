@@ -14,52 +14,155 @@
 
 package com.hayaisoftware.launcher;
 
-import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.support.annotation.NonNull;
 
 import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * This task loads a chunk of launchable activities, and adds them to the adapter as a batch.
+ */
 public final class LoadLaunchableActivityTask implements SimpleTaskConsumerManager.Task {
 
-    private final LaunchableAdapter<LaunchableActivity> mAdapter;
-
-    private final ActivityInfo mInfo;
+    private final Factory mFactory;
 
-    private final PackageManager mPackageManager;
+    private final Collection<ResolveInfo> mInfos;
 
-    private LoadLaunchableActivityTask(final ActivityInfo info, final PackageManager packageManager,
-            final LaunchableAdapter<LaunchableActivity> adapter) {
-        mInfo = info;
-        mPackageManager = packageManager;
-        mAdapter = adapter;
+    private LoadLaunchableActivityTask(final Collection<ResolveInfo> infos,
+            final Factory factory) {
+        mInfos = infos;
+        mFactory = factory;
     }
 
     @Override
     public boolean doTask() {
-        final LaunchableActivity activity =
-                LaunchableActivity.getLaunchable(mInfo, mPackageManager);
+        final List<LaunchableActivity> batch = new ArrayList<>(mInfos.size());
+
+        for (final ResolveInfo info : mInfos) {
+            batch.add(LaunchableActivity.getLaunchable(info.activityInfo,
+                    mFactory.mPackageManager));
+        }
 
-        mAdapter.add(activity);
+        mFactory.addBatch(batch);
+        mFactory.onTaskDone(batch);
 
         return true;
     }
 
+    /**
+     * This interface is called once all the tasks of a {@link Factory} are done.
+     */
+    public interface Callback {
+
+        /**
+         * Called from the loading thread which loaded the last chunk.
+         *
+         * @param launchables All the loaded launchables.
+         */
+        void onLaunchablesLoaded(@NonNull List<LaunchableActivity> launchables);
+    }
+
+    /**
+     * This class creates the tasks loading the launchables, and tracks them until they are all
+     * done. The adapter and callback of the tasks may be replaced while they run, such as when
+     * the activity is recreated on a configuration change.
+     */
     public static final class Factory {
 
-        private final LaunchableAdapter<LaunchableActivity> mAdapter;
+        /**
+         * Synchronize to this lock when accessing {@link #mAdapter} or {@link #mCallback}.
+         */
+        private final Object mLock = new Object();
+
+        private final Collection<LaunchableActivity> mLoaded = new ConcurrentLinkedQueue<>();
 
         private final PackageManager mPackageManager;
 
+        /**
+         * The number of tasks which are not done yet.
+         */
+        private final AtomicInteger mRemaining;
+
+        private LaunchableAdapter<LaunchableActivity> mAdapter;
+
+        private Callback mCallback;
+
+        /**
+         * Constructor
+         *
+         * @param packageManager The PackageManager to load the activities with.
+         * @param adapter        The adapter to add the loaded activities to.
+         * @param taskCount      The number of tasks which will be created by this factory.
+         * @param callback       The callback to call once all the tasks are done.
+         */
         public Factory(final PackageManager packageManager,
-                final LaunchableAdapter<LaunchableActivity> adapter) {
+                final LaunchableAdapter<LaunchableActivity> adapter, final int taskCount,
+                final Callback callback) {
             mPackageManager = packageManager;
             mAdapter = adapter;
+            mRemaining = new AtomicInteger(taskCount);
+            mCallback = callback;
+        }
+
+        private void addBatch(final Collection<LaunchableActivity> batch) {
+            synchronized (mLock) {
+                mAdapter.addBatch(batch);
+            }
+        }
+
+        public SimpleTaskConsumerManager.Task create(final Collection<ResolveInfo> infos) {
+            return new LoadLaunchableActivityTask(infos, this);
+        }
+
+        /**
+         * This method returns whether all the tasks are done. Once they are, every loaded
+         * launchable was added to the adapter.
+         *
+         * @return {@code true} if all the tasks are done.
+         */
+        public boolean isDone() {
+            return mRemaining.get() == 0;
+        }
+
+        private void onTaskDone(final Collection<LaunchableActivity> batch) {
+            mLoaded.addAll(batch);
+
+            if (mRemaining.decrementAndGet() == 0) {
+                final Callback callback;
+
+                synchronized (mLock) {
+                    callback = mCallback;
+                }
+
+                callback.onLaunchablesLoaded(new ArrayList<>(mLoaded));
+            }
         }
 
-        public SimpleTaskConsumerManager.Task create(final ResolveInfo info) {
-            return new LoadLaunchableActivityTask(info.activityInfo, mPackageManager, mAdapter);
+        /**
+         * This method replaces the adapter and callback of the tasks. The launchables added to
+         * the previous adapter which it didn't merge yet are moved to the new one.
+         *
+         * @param adapter  The adapter to add the loaded activities to.
+         * @param callback The callback to call once all the tasks are done.
+         */
+        public void setTarget(@NonNull final LaunchableAdapter<LaunchableActivity> adapter,
+                @NonNull final Callback callback) {
+            synchronized (mLock) {
+                final List<LaunchableActivity> pending = mAdapter.removePendingBatches();
+
+                mAdapter = adapter;
+                mCallback = callback;
+                if (!pending.isEmpty()) {
+                    adapter.addBatch(pending);
+                }
+            }
         }
     }
 }
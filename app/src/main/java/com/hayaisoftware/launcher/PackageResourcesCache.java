@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * This class caches the {@link Resources} of packages, so the activities of a package share
+ * them instead of setting up an AssetManager each.
+ *
+ * Each Resources object keeps the package open, so only the most recently used packages are
+ * kept. It is shared by the whole process, and it is safe to use from multiple threads.
+ */
+public final class PackageResourcesCache {
+
+    /**
+     * The maximum number of packages to keep the Resources of.
+     */
+    private static final int MAX_PACKAGES = 32;
+
+    private static final String TAG = "PackageResourcesCache";
+
+    private static PackageResourcesCache sInstance;
+
+    private final LruCache<String, Resources> mCache = new LruCache<>(MAX_PACKAGES);
+
+    private final PackageManager mPackageManager;
+
+    /**
+     * Constructor
+     *
+     * @param context The context to get the PackageManager with.
+     */
+    private PackageResourcesCache(@NonNull final Context context) {
+        mPackageManager = context.getApplicationContext().getPackageManager();
+    }
+
+    /**
+     * This method returns the process-wide cache, creating it the first time.
+     *
+     * @param context The context to get the PackageManager with.
+     * @return The cache.
+     */
+    @NonNull
+    public static synchronized PackageResourcesCache getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageResourcesCache(context);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * This method removes all the Resources from the cache.
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * This method returns the Resources of the package of an activity, loading them the first
+     * time.
+     *
+     * @param component The component of the activity.
+     * @return The Resources, {@code null} if the package couldn't be found.
+     */
+    @Nullable
+    public Resources get(@NonNull final ComponentName component) {
+        Resources resources = mCache.get(component.getPackageName());
+
+        if (resources == null) {
+            try {
+                resources = mPackageManager.getResourcesForActivity(component);
+                mCache.put(component.getPackageName(), resources);
+            } catch (final PackageManager.NameNotFoundException e) {
+                Log.e(TAG, "Unable to get the resources of " + component, e);
+            }
+        }
+
+        return resources;
+    }
+
+    /**
+     * This method removes the Resources of a package, after it was updated or removed.
+     *
+     * @param packageName The name of the package.
+     */
+    public void remove(@NonNull final String packageName) {
+        mCache.remove(packageName);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This task reconciles the shown catalog of launchable activities with the
+ * {@link PackageManager}, then writes the {@link CatalogSnapshot}, prunes the persistent
+ * information of activities whose package was uninstalled and sweeps the {@link IconDiskCache}
+ * down to the icons of the catalog.
+ *
+ * Activities of packages which were not updated since the snapshot was written are kept as is,
+ * only new or updated activities have their label loaded again. The differences are delivered to
+ * the {@link Callback} set by {@link #setCallback(Callback)} on the UI thread, so a task started
+ * by an activity which was recreated since delivers them to the new activity.
+ */
+public final class ReconcileCatalogTask implements Runnable, SimpleTaskConsumerManager.Task {
+
+    /**
+     * The callback the differences are delivered to, only accessed from the UI thread.
+     */
+    private static Callback sCallback;
+
+    private final List<LaunchableActivity> mAdded = new ArrayList<>();
+
+    private final Context mContext;
+
+    private final List<CatalogSnapshot.Entry> mEntries;
+
+    /**
+     * The name of the class the activities of its own package are excluded for.
+     */
+    private final String mExcludedName;
+
+    private final List<LaunchableActivity> mRemoved = new ArrayList<>();
+
+    private final CatalogSnapshot mSnapshot;
+
+    /**
+     * Constructor
+     *
+     * @param context      The context to query the PackageManager with.
+     * @param entries      The entries currently shown.
+     * @param excludedName The name of a class, activities of packages it starts with are
+     *                     excluded from the catalog.
+     */
+    public ReconcileCatalogTask(@NonNull final Context context,
+            @NonNull final List<CatalogSnapshot.Entry> entries,
+            @NonNull final String excludedName) {
+        mContext = context.getApplicationContext();
+        mEntries = entries;
+        mExcludedName = excludedName;
+        mSnapshot = new CatalogSnapshot(context);
+    }
+
+    @Override
+    public boolean doTask() {
+        final PackageManager pm = mContext.getPackageManager();
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        final Map<String, CatalogSnapshot.Entry> known = new HashMap<>(mEntries.size());
+        final Map<String, Long> lastUpdateTimes = new HashMap<>();
+        final Collection<LaunchableActivity> catalog = new ArrayList<>(mEntries.size());
+
+        for (final CatalogSnapshot.Entry entry : mEntries) {
+            known.put(entry.getLaunchable().getComponent().flattenToString(), entry);
+        }
+
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        for (final ResolveInfo info : pm.queryIntentActivities(intent, 0)) {
+            final ActivityInfo activityInfo = info.activityInfo;
+
+            // Don't include activities from this package.
+            if (!mExcludedName.startsWith(activityInfo.packageName)) {
+                final String component =
+                        new ComponentName(activityInfo.packageName, activityInfo.name)
+                                .flattenToString();
+                final CatalogSnapshot.Entry entry = known.remove(component);
+                final long lastUpdateTime = CatalogSnapshot.getLastUpdateTime(pm,
+                        lastUpdateTimes, activityInfo.packageName);
+
+                if (entry != null && entry.isCurrent(lastUpdateTime)) {
+                    catalog.add(entry.getLaunchable());
+                } else {
+                    final LaunchableActivity launchable =
+                            LaunchableActivity.getLaunchable(activityInfo, pm);
+
+                    if (entry != null) {
+                        mRemoved.add(entry.getLaunchable());
+                    }
+                    mAdded.add(launchable);
+                    catalog.add(launchable);
+                }
+            }
+        }
+
+        for (final CatalogSnapshot.Entry entry : known.values()) {
+            mRemoved.add(entry.getLaunchable());
+        }
+
+        mSnapshot.write(pm, catalog, lastUpdateTimes);
+
+        final LaunchableActivityPrefs prefs = LaunchableActivityPrefs.acquire(mContext);
+        prefs.prune(catalog, pm);
+        prefs.release();
+
+        IconDiskCache.getInstance(mContext).sweep(catalog,
+                mContext.getResources().getDimensionPixelSize(R.dimen.app_icon_size));
+
+        if (!mAdded.isEmpty() || !mRemoved.isEmpty()) {
+            final Handler handler = new Handler(mContext.getMainLooper());
+
+            handler.post(this);
+        }
+
+        return true;
+    }
+
+    /**
+     * This method removes the callback, if it is still the given one. Differences found
+     * afterwards are dropped until another callback is set.
+     *
+     * This must be called from the UI thread.
+     *
+     * @param callback The callback to remove.
+     */
+    public static void removeCallback(@NonNull final Callback callback) {
+        if (sCallback == callback) {
+            sCallback = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (sCallback != null) {
+            sCallback.onCatalogReconciled(mAdded, mRemoved);
+        }
+    }
+
+    /**
+     * This method sets the callback the differences found by all the tasks are delivered to.
+     *
+     * This must be called from the UI thread.
+     *
+     * @param callback The callback to deliver the differences to.
+     */
+    public static void setCallback(@NonNull final Callback callback) {
+        sCallback = callback;
+    }
+
+    /**
+     * This interface receives the differences found by a {@link ReconcileCatalogTask}.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the UI thread when the shown catalog differs from the PackageManager.
+         *
+         * @param added   The activities to add to the shown catalog.
+         * @param removed The shown activities to remove.
+         */
+        void onCatalogReconciled(@NonNull Collection<LaunchableActivity> added,
+                @NonNull Collection<LaunchableActivity> removed);
+    }
+}
@@ -55,20 +55,34 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.hayaisoftware.launcher.BuildConfig;
+import com.hayaisoftware.launcher.CatalogSnapshot;
+import com.hayaisoftware.launcher.LaunchStatsWriter;
 import com.hayaisoftware.launcher.LaunchableActivity;
 import com.hayaisoftware.launcher.LaunchableActivityPrefs;
 import com.hayaisoftware.launcher.LaunchableAdapter;
 import com.hayaisoftware.launcher.LoadLaunchableActivityTask;
 import com.hayaisoftware.launcher.R;
+import com.hayaisoftware.launcher.ReconcileCatalogTask;
 import com.hayaisoftware.launcher.ShortcutNotificationManager;
+import com.hayaisoftware.launcher.comparators.ResolveInfoOrder;
 import com.hayaisoftware.launcher.monitor.PackageChangeCallback;
 import com.hayaisoftware.launcher.monitor.PackageChangedReceiver;
-import com.hayaisoftware.launcher.threading.SimpleTaskConsumerManager;
+import com.hayaisoftware.launcher.threading.TaskScheduler;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class SearchActivity extends Activity
-        implements SharedPreferences.OnSharedPreferenceChangeListener, PackageChangeCallback {
+        implements SharedPreferences.OnSharedPreferenceChangeListener, PackageChangeCallback,
+        ReconcileCatalogTask.Callback, LoadLaunchableActivityTask.Callback,
+        LaunchableAdapter.OnBatchMergedListener {
+
+    /**
+     * The number of launchables loaded by each task, after the first screen.
+     */
+    private static final int LOAD_CHUNK_SIZE = 16;
 
     private static final String SEARCH_EDIT_TEXT_KEY = "SearchEditText";
 
@@ -82,6 +96,14 @@ public class SearchActivity extends Activity
 
     private LaunchableAdapter<LaunchableActivity> mAdapter;
 
+    private LaunchStatsWriter mLaunchStatsWriter;
+
+    /**
+     * The factory of the tasks loading the launchables, {@code null} if they were not loaded from
+     * the PackageManager.
+     */
+    private LoadLaunchableActivityTask.Factory mLoader;
+
     /*
      * Hold the menu state because we need to be able to dismiss it on demand.
      */
@@ -253,7 +275,6 @@ public class SearchActivity extends Activity
     }
 
     private void launchActivity(final LaunchableActivity launchableActivity) {
-        final LaunchableActivityPrefs launchableprefs = new LaunchableActivityPrefs(this);
         final SharedLauncherPrefs sharedPrefs = new SharedLauncherPrefs(this);
 
         hideKeyboard();
@@ -262,7 +283,7 @@ public class SearchActivity extends Activity
             mSearchEditText.setText(null);
             launchableActivity.setLaunchTime();
             launchableActivity.addUsage();
-            launchableprefs.writePreference(launchableActivity);
+            mLaunchStatsWriter.write(launchableActivity);
 
             if (sharedPrefs.isOrderedByRecent()) {
                 mAdapter.sort(LaunchableAdapter.RECENT);
@@ -310,44 +331,101 @@ public class SearchActivity extends Activity
         final Object object = getLastNonConfigurationInstance();
 
         if (object == null) {
-            adapter = loadLaunchableApps();
+            adapter = loadLaunchableCatalog();
         } else {
-            adapter = new LaunchableAdapter<>(object, this, R.layout.app_grid_item);
+            final RetainedState state = (RetainedState) object;
+
+            adapter = new LaunchableAdapter<>(state.mAdapterState, this, R.layout.app_grid_item);
             adapter.setNotifyOnChange(true);
+
+            // Keep the loading launchables coming into this instance.
+            if (state.mLoader != null) {
+                adapter.setOnBatchMergedListener(this);
+                state.mLoader.setTarget(adapter, this);
+                mLoader = state.mLoader;
+            }
         }
 
         return adapter;
     }
 
+    /**
+     * This method loads the launchable activities from the PackageManager in the background.
+     *
+     * The activities are ordered as they will be shown before they are split into chunks. The
+     * first task loads the first screen, the others load chunks of {@link #LOAD_CHUNK_SIZE}
+     * activities. The adapter is filled as the chunks are loaded.
+     *
+     * @return The adapter the activities are loaded into.
+     */
     private LaunchableAdapter<LaunchableActivity> loadLaunchableApps() {
         final PackageManager pm = getPackageManager();
         final Collection<ResolveInfo> infoList = getLaunchableResolveInfos(pm, null);
-        final int infoListSize = infoList.size();
         final LaunchableAdapter<LaunchableActivity> adapter
-                = new LaunchableAdapter<>(this, R.layout.app_grid_item, infoListSize);
-        final int cores = Runtime.getRuntime().availableProcessors();
+                = new LaunchableAdapter<>(this, R.layout.app_grid_item, infoList.size());
+        final List<List<ResolveInfo>> chunks = new ArrayList<>();
+        List<ResolveInfo> chunk = new ArrayList<>();
+        int chunkSize = LaunchableAdapter.getFirstScreenSize(getResources());
+
+        for (final ResolveInfo info : sortResolveInfos(infoList)) {
+            if (chunk.size() == chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(LOAD_CHUNK_SIZE);
+                chunkSize = LOAD_CHUNK_SIZE;
+            }
+
+            chunk.add(info);
+        }
 
-        if (cores <= 1) {
-            addToAdapter(infoList);
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        adapter.setOnBatchMergedListener(this);
+        if (chunks.isEmpty()) {
+            onLaunchablesLoaded(new ArrayList<LaunchableActivity>(0));
         } else {
-            final String thisCanonicalName = getClass().getCanonicalName();
-            final SimpleTaskConsumerManager simpleTaskConsumerManager =
-                    new SimpleTaskConsumerManager(cores, infoListSize);
-            final LoadLaunchableActivityTask.Factory launchableTask =
-                    new LoadLaunchableActivityTask.Factory(pm, adapter);
-
-            for (final ResolveInfo info : infoList) {
-                // Don't include activities from this package.
-                if (!thisCanonicalName.startsWith(info.activityInfo.packageName)) {
-                    simpleTaskConsumerManager.addTask(launchableTask.create(info));
-                }
-            }
+            final TaskScheduler scheduler = TaskScheduler.getInstance();
+
+            mLoader = new LoadLaunchableActivityTask.Factory(pm, adapter, chunks.size(), this);
+            for (int i = 0; i < chunks.size(); i++) {
+                // Only the first screen is waited for, the icons on it come before the others.
+                final int lane = i == 0 ? TaskScheduler.LANE_UI_CRITICAL :
+                        TaskScheduler.LANE_PREFETCH;
 
-            simpleTaskConsumerManager.destroyAllConsumers(true, true);
+                scheduler.submit(mLoader.create(chunks.get(i)), lane);
+            }
         }
 
-        adapter.sortApps(this);
-        adapter.notifyDataSetChanged();
+        return adapter;
+    }
+
+    /**
+     * This method loads the catalog from the {@link CatalogSnapshot} if there is one, from the
+     * PackageManager otherwise, and reconciles it in the background.
+     *
+     * @return The adapter showing the catalog.
+     */
+    private LaunchableAdapter<LaunchableActivity> loadLaunchableCatalog() {
+        final List<CatalogSnapshot.Entry> entries = new CatalogSnapshot(this).read();
+        final LaunchableAdapter<LaunchableActivity> adapter;
+
+        if (entries == null) {
+            // The catalog is reconciled once it is loaded.
+            adapter = loadLaunchableApps();
+        } else {
+            final Collection<LaunchableActivity> launchables = new ArrayList<>(entries.size());
+
+            for (final CatalogSnapshot.Entry entry : entries) {
+                launchables.add(entry.getLaunchable());
+            }
+
+            adapter = new LaunchableAdapter<>(this, R.layout.app_grid_item, entries.size());
+            adapter.addAll(launchables);
+            adapter.sortApps(this);
+            adapter.notifyDataSetChanged();
+            reconcileCatalog(entries);
+        }
 
         return adapter;
     }
@@ -374,6 +452,47 @@ public class SearchActivity extends Activity
         }
     }
 
+    /**
+     * Called on the UI thread after batches of loaded launchables were merged into the adapter,
+     * in order.
+     */
+    @Override
+    public void onBatchMerged() {
+        synchronized (mLock) {
+            updateFilter(mSearchEditText.getText());
+        }
+    }
+
+    /**
+     * Called when the catalog shown from the {@link CatalogSnapshot} differs from the
+     * PackageManager.
+     *
+     * @param added   The activities to add to the adapter.
+     * @param removed The activities to remove from the adapter.
+     */
+    @Override
+    public void onCatalogReconciled(@NonNull final Collection<LaunchableActivity> added,
+            @NonNull final Collection<LaunchableActivity> removed) {
+        synchronized (mLock) {
+            final Collection<LaunchableActivity> missing = new ArrayList<>(added.size());
+
+            mAdapter.removeAll(removed);
+
+            // Activities may have been added since, such as by onPackageAppeared().
+            for (final LaunchableActivity launchable : added) {
+                final String className = launchable.getComponent().getClassName();
+
+                if (mAdapter.getClassNamePosition(className) == -1) {
+                    missing.add(launchable);
+                }
+            }
+
+            mAdapter.addAll(missing);
+            mAdapter.sortApps(this);
+            updateFilter(mSearchEditText.getText());
+        }
+    }
+
     public void onClickClearButton(final View view) {
         mSearchEditText.setText("");
     }
@@ -396,6 +515,7 @@ public class SearchActivity extends Activity
 
         //fields:
         mSearchEditText = findViewById(R.id.user_search_input);
+        mLaunchStatsWriter = new LaunchStatsWriter(this);
         mAdapter = loadLaunchableAdapter();
 
         final boolean noMultiWindow = Build.VERSION.SDK_INT < Build.VERSION_CODES.N ||
@@ -405,6 +525,7 @@ public class SearchActivity extends Activity
         setupPadding(transparentPossible && noMultiWindow);
 
         PackageChangedReceiver.setCallback(this);
+        ReconcileCatalogTask.setCallback(this);
         modifyReceiver(PackageManager.COMPONENT_ENABLED_STATE_ENABLED);
 
         setupPreferences();
@@ -444,10 +565,29 @@ public class SearchActivity extends Activity
             Log.d(BuildConfig.GITHUB_PROJECT, "Hayai is ded");
         }
         modifyReceiver(PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+        ReconcileCatalogTask.removeCallback(this);
         mAdapter.onDestroy();
+        mLaunchStatsWriter.close();
         super.onDestroy();
     }
 
+    /**
+     * Called from a loading thread once all the launchables were loaded from the
+     * PackageManager.
+     *
+     * @param launchables The loaded launchables.
+     */
+    @Override
+    public void onLaunchablesLoaded(@NonNull final List<LaunchableActivity> launchables) {
+        final List<CatalogSnapshot.Entry> entries = new ArrayList<>(launchables.size());
+
+        for (final LaunchableActivity launchable : launchables) {
+            entries.add(new CatalogSnapshot.Entry(launchable));
+        }
+
+        reconcileCatalog(entries);
+    }
+
     @Override
     public void onMultiWindowModeChanged(final boolean isInMultiWindowMode,
             final Configuration newConfig) {
@@ -527,12 +667,31 @@ public class SearchActivity extends Activity
      */
     @Override
     public void onPackageModified(final String activityName) {
+        mAdapter.invalidateIcons(activityName);
+
         synchronized (mLock) {
             onPackageDisappeared(activityName);
             onPackageAppeared(activityName);
         }
     }
 
+    /**
+     * Called when a package is uninstalled.
+     *
+     * @param packageName The name of the package which was uninstalled.
+     */
+    @Override
+    public void onPackageRemoved(final String packageName) {
+        mAdapter.invalidateIcons(packageName);
+        mLaunchStatsWriter.deletePackage(packageName);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mLaunchStatsWriter.flush();
+    }
+
     @Override
     protected void onRestoreInstanceState(final Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
@@ -551,6 +710,7 @@ public class SearchActivity extends Activity
         super.onResume();
         final SharedLauncherPrefs prefs = new SharedLauncherPrefs(this);
         mAdapter.updateUsageMap(this);
+        mAdapter.setFuzzySearchEnabled(prefs.isFuzzySearchEnabled());
         final Editable searchText = mSearchEditText.getText();
 
         if (prefs.isKeyboardAutomatic() || searchText.length() > 0) {
@@ -577,13 +737,20 @@ public class SearchActivity extends Activity
     }
 
     /**
-     * Retain the state of the adapter on configuration change.
+     * Retain the state of the adapter on configuration change, and the launchables still
+     * loading.
      *
-     * @return The attached {@link LaunchableAdapter}.
+     * @return The {@link RetainedState} of this activity.
      */
     @Override
     public Object onRetainNonConfigurationInstance() {
-        return mAdapter.export();
+        // Once done, every loaded launchable is in the adapter after merging the batches.
+        final LoadLaunchableActivityTask.Factory loader =
+                mLoader == null || mLoader.isDone() ? null : mLoader;
+
+        mAdapter.mergePendingBatches();
+
+        return new RetainedState(mAdapter.export(), loader);
     }
 
     @Override
@@ -614,6 +781,7 @@ public class SearchActivity extends Activity
     @Override
     public void onTrimMemory(final int level) {
         super.onTrimMemory(level);
+        mLaunchStatsWriter.flush();
         if (level == TRIM_MEMORY_COMPLETE) {
             mAdapter.clearCaches();
         }
@@ -622,7 +790,6 @@ public class SearchActivity extends Activity
 
     public void pinToTop(final MenuItem item) {
         final LaunchableActivity activity = getLaunchableActivity(item);
-        final LaunchableActivityPrefs prefs = new LaunchableActivityPrefs(this);
 
         if (activity.getPriority() == 0) {
             activity.setPriority(1);
@@ -630,10 +797,21 @@ public class SearchActivity extends Activity
             activity.setPriority(0);
         }
 
-        prefs.writePreference(activity);
+        mLaunchStatsWriter.write(activity);
         mAdapter.sortApps(this);
     }
 
+    /**
+     * This method reconciles the shown catalog with the PackageManager in the background, and
+     * writes the {@link CatalogSnapshot}.
+     *
+     * @param entries The entries of the shown catalog.
+     */
+    private void reconcileCatalog(final List<CatalogSnapshot.Entry> entries) {
+        TaskScheduler.getInstance().submit(new ReconcileCatalogTask(this, entries,
+                getClass().getCanonicalName()), TaskScheduler.LANE_BACKGROUND);
+    }
+
     public void setWallpaper(final MenuItem item) {
         startActivity(new Intent(Intent.ACTION_SET_WALLPAPER));
     }
@@ -702,6 +880,35 @@ public class SearchActivity extends Activity
         appContainer.setOnItemClickListener(listener);
     }
 
+    /**
+     * This method orders the activities to load close to the order they will be shown in,
+     * leaving out the activities of this package.
+     *
+     * @param infos The activities to order.
+     * @return The activities, in the order they will be shown.
+     */
+    private List<ResolveInfo> sortResolveInfos(final Collection<ResolveInfo> infos) {
+        final String thisCanonicalName = getClass().getCanonicalName();
+        final List<ResolveInfo> sorted = new ArrayList<>(infos.size());
+        final LaunchableActivityPrefs prefs = LaunchableActivityPrefs.acquire(this);
+
+        for (final ResolveInfo info : infos) {
+            // Don't include activities from this package.
+            if (!thisCanonicalName.startsWith(info.activityInfo.packageName)) {
+                sorted.add(info);
+            }
+        }
+
+        try {
+            Collections.sort(sorted, new ResolveInfoOrder(prefs.getAllPreferences(),
+                    new SharedLauncherPrefs(this)));
+        } finally {
+            prefs.release();
+        }
+
+        return sorted;
+    }
+
     public void startAppSettings(final MenuItem item) {
         startActivity(new Intent(this, SettingsActivity.class));
     }
@@ -717,7 +924,7 @@ public class SearchActivity extends Activity
         final int seqLength = cs.length();
 
         if (seqLength != 1 || cs.charAt(0) != '\0') {
-            mAdapter.getFilter().filter(cs);
+            mAdapter.filter(cs);
         }
     }
 
@@ -733,6 +940,7 @@ public class SearchActivity extends Activity
         @Override
         public void onScroll(final AbsListView view, final int firstVisibleItem,
                 final int visibleItemCount, final int totalItemCount) {
+            mAdapter.setVisibleRange(firstVisibleItem, visibleItemCount);
         }
 
         @Override
@@ -743,6 +951,25 @@ public class SearchActivity extends Activity
         }
     }
 
+    /**
+     * This class holds the state retained across a configuration change.
+     */
+    private static final class RetainedState {
+
+        private final Object mAdapterState;
+
+        /**
+         * The factory of the tasks still loading launchables, {@code null} if none is.
+         */
+        private final LoadLaunchableActivityTask.Factory mLoader;
+
+        private RetainedState(final Object adapterState,
+                final LoadLaunchableActivityTask.Factory loader) {
+            mAdapterState = adapterState;
+            mLoader = loader;
+        }
+    }
+
     private final class SearchEditTextListeners
             implements TextView.OnEditorActionListener, TextWatcher {
 
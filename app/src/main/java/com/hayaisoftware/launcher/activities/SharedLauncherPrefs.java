@@ -132,6 +132,15 @@ public class SharedLauncherPrefs {
         return mPreferences.getString(prefKey, defaultKey);
     }
 
+    /**
+     * This returns whether search should fall back to typo tolerant matching.
+     *
+     * @return {@code true} if typo tolerant search is enabled, {@code false} otherwise.
+     */
+    public boolean isFuzzySearchEnabled() {
+        return isPrefEnabled(R.string.pref_key_fuzzy_search, true);
+    }
+
     /**
      * This returns whether the keyboard should be automatically loaded at startup.
      *
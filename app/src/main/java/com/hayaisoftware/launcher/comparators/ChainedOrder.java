@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.comparators;
+
+import com.hayaisoftware.launcher.LaunchableActivity;
+
+import java.util.Comparator;
+
+/**
+ * This comparator orders by its first comparator, breaking ties with the next ones in turn. This
+ * is the order a stable sort by each of the comparators in reverse order results in.
+ */
+public class ChainedOrder implements Comparator<LaunchableActivity> {
+
+    private final Comparator<LaunchableActivity>[] mComparators;
+
+    @SafeVarargs
+    public ChainedOrder(final Comparator<LaunchableActivity>... comparators) {
+        mComparators = comparators;
+    }
+
+    @Override
+    public int compare(final LaunchableActivity lhs, final LaunchableActivity rhs) {
+        int compare = 0;
+
+        for (int i = 0; i < mComparators.length && compare == 0; i++) {
+            compare = mComparators[i].compare(lhs, rhs);
+        }
+
+        return compare;
+    }
+}
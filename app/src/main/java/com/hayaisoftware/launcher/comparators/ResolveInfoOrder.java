@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.comparators;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+import android.support.annotation.NonNull;
+
+import com.hayaisoftware.launcher.LaunchableActivityPrefs;
+import com.hayaisoftware.launcher.activities.SharedLauncherPrefs;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * This comparator orders activities which are not loaded yet close to the order they will be
+ * shown in, from their persistent information.
+ *
+ * Their labels aren't loaded yet, so the name of their class stands in for any label which is
+ * localized.
+ */
+public class ResolveInfoOrder implements Comparator<ResolveInfo> {
+
+    private final boolean mOrderedByRecent;
+
+    private final boolean mOrderedByUsage;
+
+    private final Map<String, LaunchableActivityPrefs.Row> mRows;
+
+    /**
+     * Constructor
+     *
+     * @param rows  The persistent information of the activities, by class name.
+     * @param prefs The preferences of the launcher, for the order.
+     */
+    public ResolveInfoOrder(@NonNull final Map<String, LaunchableActivityPrefs.Row> rows,
+            @NonNull final SharedLauncherPrefs prefs) {
+        mRows = rows;
+        mOrderedByRecent = prefs.isOrderedByRecent();
+        mOrderedByUsage = prefs.isOrderedByUsage();
+    }
+
+    @Override
+    public int compare(final ResolveInfo lhs, final ResolveInfo rhs) {
+        final LaunchableActivityPrefs.Row lhsRow = mRows.get(lhs.activityInfo.name);
+        final LaunchableActivityPrefs.Row rhsRow = mRows.get(rhs.activityInfo.name);
+        int compare = getPriority(rhsRow) - getPriority(lhsRow);
+
+        if (compare == 0) {
+            if (mOrderedByRecent) {
+                final long lhsLaunchTime = getLaunchTime(lhsRow);
+                final long rhsLaunchTime = getLaunchTime(rhsRow);
+
+                if (lhsLaunchTime > rhsLaunchTime) {
+                    compare = -1;
+                } else if (lhsLaunchTime < rhsLaunchTime) {
+                    compare = 1;
+                }
+            } else if (mOrderedByUsage) {
+                compare = getUsageQuantity(rhsRow) - getUsageQuantity(lhsRow);
+            }
+        }
+
+        if (compare == 0) {
+            compare = getLabel(lhs.activityInfo).compareToIgnoreCase(getLabel(rhs.activityInfo));
+        }
+
+        return compare;
+    }
+
+    private static String getLabel(final ActivityInfo info) {
+        final String label;
+
+        if (info.nonLocalizedLabel == null) {
+            label = info.name.substring(info.name.lastIndexOf('.') + 1);
+        } else {
+            label = info.nonLocalizedLabel.toString();
+        }
+
+        return label;
+    }
+
+    private static long getLaunchTime(final LaunchableActivityPrefs.Row row) {
+        return row == null ? 0L : row.getLaunchTime();
+    }
+
+    private static int getPriority(final LaunchableActivityPrefs.Row row) {
+        return row == null ? 0 : row.getPriority();
+    }
+
+    private static int getUsageQuantity(final LaunchableActivityPrefs.Row row) {
+        return row == null ? 0 : row.getUsageQuantity();
+    }
+}
@@ -38,4 +38,12 @@ public interface PackageChangeCallback {
      * @param activityName The name of the {@link Activity} of the package which was modified.
      */
     void onPackageModified(String activityName);
+
+    /**
+     * Called when a package is uninstalled, after {@link #onPackageDisappeared(String)}. This is
+     * not called when a package disappears to be replaced or only becomes unavailable.
+     *
+     * @param packageName The name of the package which was uninstalled.
+     */
+    void onPackageRemoved(String packageName);
 }
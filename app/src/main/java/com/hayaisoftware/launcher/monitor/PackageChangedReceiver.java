@@ -60,6 +60,11 @@ public class PackageChangedReceiver extends BroadcastReceiver {
      */
     private static final int PACKAGE_DISAPPEARED = 2;
 
+    /**
+     * An action was received noting that a package was uninstalled from the system.
+     */
+    private static final int PACKAGE_REMOVED = 3;
+
     /**
      * The class log identifier.
      */
@@ -84,6 +89,10 @@ public class PackageChangedReceiver extends BroadcastReceiver {
                 break;
             case Intent.ACTION_PACKAGE_REMOVED:
                 sendPackageName(PACKAGE_DISAPPEARED, intent.getData().getSchemeSpecificPart());
+
+                if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                    sendPackageName(PACKAGE_REMOVED, intent.getData().getSchemeSpecificPart());
+                }
                 break;
             case Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE:
             case Intent.ACTION_PACKAGES_SUSPENDED:
@@ -129,6 +138,10 @@ public class PackageChangedReceiver extends BroadcastReceiver {
                         Log.d(TAG, "Package disappeared: " + newPackage);
                         sCallback.onPackageDisappeared(newPackage);
                         break;
+                    case PACKAGE_REMOVED:
+                        Log.d(TAG, "Package removed: " + newPackage);
+                        sCallback.onPackageRemoved(newPackage);
+                        break;
                     default:
                         break;
                 }
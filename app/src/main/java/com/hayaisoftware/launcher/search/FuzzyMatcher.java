@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.search;
+
+import android.support.annotation.NonNull;
+
+/**
+ * This class finds the smallest edit distance between a pattern and any substring of a text,
+ * using the bit-parallel algorithm by Gene Myers.
+ *
+ * A matcher is reusable for any number of patterns and texts, and does not allocate after it
+ * has been constructed. Patterns are limited to {@link #MAX_PATTERN_LENGTH} characters, the
+ * number of bits of a {@code long}.
+ *
+ * This class is not thread-safe, it is meant to be reused by a single thread.
+ */
+public final class FuzzyMatcher {
+
+    /**
+     * The longest pattern this matcher accepts.
+     */
+    public static final int MAX_PATTERN_LENGTH = Long.SIZE;
+
+    /**
+     * The distinct characters of the pattern.
+     */
+    private final char[] mChars = new char[MAX_PATTERN_LENGTH];
+
+    /**
+     * The bit mask of the positions of each distinct character in the pattern.
+     */
+    private final long[] mMasks = new long[MAX_PATTERN_LENGTH];
+
+    /**
+     * The number of distinct characters in the pattern.
+     */
+    private int mCharCount;
+
+    /**
+     * The bit of the last character of the pattern.
+     */
+    private long mLastBit;
+
+    /**
+     * The length of the pattern.
+     */
+    private int mLength;
+
+    /**
+     * This method returns the smallest edit distance between the pattern and any substring of
+     * {@code text}.
+     *
+     * @param text        The text to search.
+     * @param maxDistance The distance to stop searching at, as no better match is required.
+     * @return The smallest edit distance found, or a value greater than {@code maxDistance}.
+     */
+    public int distance(@NonNull final CharSequence text, final int maxDistance) {
+        final int textLength = text.length();
+        long positive = -1L;
+        long negative = 0L;
+        int distance = mLength;
+        int best = mLength;
+
+        for (int i = 0; i < textLength && best > maxDistance; i++) {
+            final long equal = getMask(text.charAt(i));
+            final long vertical = equal | negative;
+            final long horizontal = (((equal & positive) + positive) ^ positive) | equal;
+            long horizontalPositive = negative | ~(horizontal | positive);
+            long horizontalNegative = positive & horizontal;
+
+            if ((horizontalPositive & mLastBit) != 0L) {
+                distance++;
+            } else if ((horizontalNegative & mLastBit) != 0L) {
+                distance--;
+            }
+
+            // The match may start anywhere in the text, so no carry is shifted in.
+            horizontalPositive <<= 1;
+            horizontalNegative <<= 1;
+            positive = horizontalNegative | ~(vertical | horizontalPositive);
+            negative = horizontalPositive & vertical;
+
+            if (distance < best) {
+                best = distance;
+            }
+        }
+
+        return best;
+    }
+
+    private long getMask(final char c) {
+        for (int i = 0; i < mCharCount; i++) {
+            if (mChars[i] == c) {
+                return mMasks[i];
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * This method sets the pattern to search for.
+     *
+     * @param pattern The pattern, at most {@link #MAX_PATTERN_LENGTH} characters long.
+     */
+    public void setPattern(@NonNull final CharSequence pattern) {
+        final int length = pattern.length();
+
+        if (length == 0 || length > MAX_PATTERN_LENGTH) {
+            throw new IllegalArgumentException("Unsupported pattern length: " + length);
+        }
+
+        mCharCount = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = pattern.charAt(i);
+            int index = 0;
+
+            while (index < mCharCount && mChars[index] != c) {
+                index++;
+            }
+
+            if (index == mCharCount) {
+                mChars[index] = c;
+                mMasks[index] = 0L;
+                mCharCount++;
+            }
+
+            mMasks[index] |= 1L << i;
+        }
+
+        mLength = length;
+        mLastBit = 1L << (length - 1);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.search;
+
+import android.support.annotation.NonNull;
+
+/**
+ * This class scores how well a normalized search key matches a normalized query.
+ *
+ * Lower scores are better matches.
+ */
+public final class MatchScorer {
+
+    /**
+     * The key is equal to the query.
+     */
+    public static final int EXACT = 0;
+
+    /**
+     * The key starts with the query.
+     */
+    public static final int PREFIX = 1;
+
+    /**
+     * A word other than the first in the key starts with the query.
+     */
+    public static final int WORD_PREFIX = 2;
+
+    /**
+     * The initials of the words in the label start with the query.
+     */
+    public static final int ACRONYM = 3;
+
+    /**
+     * The key contains the query.
+     */
+    public static final int SUBSTRING = 4;
+
+    /**
+     * The key contains the query with typos. The edit distance is added to this score.
+     */
+    public static final int FUZZY = 5;
+
+    /**
+     * The key does not match the query.
+     */
+    public static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private MatchScorer() {
+    }
+
+    /**
+     * This method returns whether a character in a key starts a word.
+     *
+     * @param key   The normalized search key.
+     * @param index The index of the character in the key.
+     * @return {@code true} if the character is the first of a word, {@code false} otherwise.
+     */
+    private static boolean isWordStart(final String key, final int index) {
+        return index == 0 || !Character.isLetterOrDigit(key.charAt(index - 1));
+    }
+
+    /**
+     * This method scores a key against a query.
+     *
+     * @param key      The normalized search key.
+     * @param initials The normalized initials of the label.
+     * @param query    The normalized, non-empty, query.
+     * @return The best of {@link #EXACT}, {@link #PREFIX}, {@link #WORD_PREFIX},
+     * {@link #ACRONYM} and {@link #SUBSTRING} matching, {@link #NO_MATCH} if none do.
+     */
+    public static int score(@NonNull final String key, @NonNull final String initials,
+            @NonNull final String query) {
+        final int score;
+        final int index = key.indexOf(query);
+
+        if (index == 0) {
+            if (key.length() == query.length()) {
+                score = EXACT;
+            } else {
+                score = PREFIX;
+            }
+        } else {
+            int wordIndex = index;
+
+            while (wordIndex != -1 && !isWordStart(key, wordIndex)) {
+                wordIndex = key.indexOf(query, wordIndex + 1);
+            }
+
+            if (wordIndex != -1) {
+                score = WORD_PREFIX;
+            } else if (initials.startsWith(query)) {
+                score = ACRONYM;
+            } else if (index != -1) {
+                score = SUBSTRING;
+            } else {
+                score = NO_MATCH;
+            }
+        }
+
+        return score;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.search;
+
+import android.support.annotation.NonNull;
+
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+/**
+ * This class builds the normalized keys used to match a search query against launchables.
+ *
+ * Both the query and the labels must go through the same normalization for a match to be found.
+ */
+public final class SearchKeys {
+
+    private static final Pattern DIACRITICAL_MARKS =
+            Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private SearchKeys() {
+    }
+
+    /**
+     * This method returns the accent stripped, lower case initials of the words in a label.
+     *
+     * Words start after any character which isn't a letter or a digit, and at each upper case
+     * letter following a lower case letter, so "YouTube Music" has the initials "ytm".
+     *
+     * @param label The label to get the initials of.
+     * @return The normalized initials of {@code label}.
+     */
+    @NonNull
+    public static String initials(@NonNull final CharSequence label) {
+        final String stripped = stripAccents(label);
+        final int length = stripped.length();
+        final StringBuilder initials = new StringBuilder();
+        char previous = ' ';
+
+        for (int i = 0; i < length; i++) {
+            final char current = stripped.charAt(i);
+
+            if (Character.isLetterOrDigit(current)) {
+                if (!Character.isLetterOrDigit(previous) ||
+                        (Character.isUpperCase(current) && Character.isLowerCase(previous))) {
+                    initials.append(current);
+                }
+            }
+
+            previous = current;
+        }
+
+        return initials.toString().toLowerCase();
+    }
+
+    /**
+     * This method returns the accent stripped, lower case form of a string.
+     *
+     * @param cs The string to normalize.
+     * @return The normalized search key for {@code cs}.
+     */
+    @NonNull
+    public static String normalize(@NonNull final CharSequence cs) {
+        return stripAccents(cs).toLowerCase();
+    }
+
+    /**
+     * This method removes the diacritical marks from a string.
+     *
+     * @param cs The string to strip the accents from.
+     * @return The string, without any diacritical marks.
+     */
+    @NonNull
+    public static String stripAccents(@NonNull final CharSequence cs) {
+        return DIACRITICAL_MARKS.matcher(
+                Normalizer.normalize(cs, Normalizer.Form.NFKD)).replaceAll("");
+    }
+}
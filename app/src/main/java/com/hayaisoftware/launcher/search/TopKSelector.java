@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.search;
+
+import android.support.annotation.NonNull;
+
+import java.util.Comparator;
+
+/**
+ * This class selects the best {@code k} scored items offered to it, without sorting all of them.
+ *
+ * The selection is kept in a bounded heap with the worst selected item at its root, so offering
+ * an item costs {@code O(log k)}. Lower scores are better, equal scores are ordered by the tie
+ * break {@link Comparator}, and items which are still equal keep the order of their offered
+ * positions, so the selection doesn't depend on the order of the heap.
+ *
+ * This class is not thread-safe, it is meant to be reused by a single thread.
+ *
+ * @param <T> The type of the items to select from.
+ */
+public final class TopKSelector<T> {
+
+    private final Object[] mItems;
+
+    private final int[] mPositions;
+
+    private final int[] mScores;
+
+    private final Comparator<? super T> mTieBreak;
+
+    private int mSize;
+
+    /**
+     * Sole constructor.
+     *
+     * @param capacity The maximum number of items to select.
+     * @param tieBreak The order of items with equal scores, the lesser item is better.
+     */
+    public TopKSelector(final int capacity, @NonNull final Comparator<? super T> tieBreak) {
+        mItems = new Object[capacity];
+        mPositions = new int[capacity];
+        mScores = new int[capacity];
+        mTieBreak = tieBreak;
+    }
+
+    /**
+     * This method removes all selected items.
+     */
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mItems[i] = null;
+        }
+
+        mSize = 0;
+    }
+
+    /**
+     * This method compares two heap entries.
+     *
+     * @return A negative number if the entry at {@code lhs} is a better match than the entry at
+     * {@code rhs}, a positive number if worse, {@code 0} if equal.
+     */
+    private int compare(final int lhs, final int rhs) {
+        return compare(mScores[lhs], mItems[lhs], mPositions[lhs], rhs);
+    }
+
+    /**
+     * This method compares an item to a heap entry.
+     *
+     * @param score    The score of the item.
+     * @param item     The item.
+     * @param position The offered position of the item.
+     * @param index    The index of the heap entry.
+     * @return A negative number if the item is a better match than the entry at {@code index}, a
+     * positive number if worse, {@code 0} if equal.
+     */
+    @SuppressWarnings("unchecked")
+    private int compare(final int score, final Object item, final int position, final int index) {
+        int compare;
+
+        if (score == mScores[index]) {
+            compare = mTieBreak.compare((T) item, (T) mItems[index]);
+
+            if (compare == 0) {
+                compare = position < mPositions[index] ? -1 :
+                        (position == mPositions[index] ? 0 : 1);
+            }
+        } else if (score < mScores[index]) {
+            compare = -1;
+        } else {
+            compare = 1;
+        }
+
+        return compare;
+    }
+
+    /**
+     * This method returns the selected item at an index, once {@link #sort()} has been called.
+     *
+     * @param index The index of the item, {@code 0} being the best.
+     * @return The selected item.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final int index) {
+        return (T) mItems[index];
+    }
+
+    /**
+     * This method returns the position given to {@link #offer(Object, int, int)} for the
+     * selected item at an index.
+     *
+     * @param index The index of the item.
+     * @return The position of the item in the offered collection.
+     */
+    public int getPosition(final int index) {
+        return mPositions[index];
+    }
+
+    /**
+     * This method offers an item for selection.
+     *
+     * @param item     The item to select.
+     * @param score    The score of the item, lower is better.
+     * @param position The position of the item in the offered collection.
+     */
+    public void offer(@NonNull final T item, final int score, final int position) {
+        if (mSize < mItems.length) {
+            set(mSize, item, score, position);
+            mSize++;
+            siftUp(mSize - 1);
+        } else if (mSize > 0 && compare(score, item, position, 0) < 0) {
+            set(0, item, score, position);
+            siftDown(0, mSize);
+        }
+    }
+
+    private void set(final int index, final Object item, final int score, final int position) {
+        mItems[index] = item;
+        mScores[index] = score;
+        mPositions[index] = position;
+    }
+
+    private void siftDown(final int index, final int size) {
+        int parent = index;
+        int child = (parent << 1) + 1;
+
+        while (child < size) {
+            if (child + 1 < size && compare(child + 1, child) > 0) {
+                child++;
+            }
+
+            if (compare(child, parent) <= 0) {
+                break;
+            }
+
+            swap(parent, child);
+            parent = child;
+            child = (parent << 1) + 1;
+        }
+    }
+
+    private void siftUp(final int index) {
+        int child = index;
+
+        while (child > 0) {
+            final int parent = (child - 1) >> 1;
+
+            if (compare(child, parent) <= 0) {
+                break;
+            }
+
+            swap(parent, child);
+            child = parent;
+        }
+    }
+
+    /**
+     * This method returns the number of selected items.
+     *
+     * @return The number of selected items.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * This method orders the selected items from best to worst. No further item may be offered
+     * until {@link #clear()} is called.
+     */
+    public void sort() {
+        // Heap sort, repeatedly moving the worst remaining item to the end.
+        for (int end = mSize - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void swap(final int lhs, final int rhs) {
+        final Object item = mItems[lhs];
+        final int score = mScores[lhs];
+        final int position = mPositions[lhs];
+
+        set(lhs, mItems[rhs], mScores[rhs], mPositions[rhs]);
+        set(rhs, item, score, position);
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.search;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * This class is an inverted index from the trigrams of search keys to the ids of the keys.
+ *
+ * Ids are stable, unlike positions in a list, so the index survives sorting the list and is only
+ * updated as keys are added or removed.
+ *
+ * Trigrams are stored as {@code int} codes, which may collide for characters outside of the
+ * lower planes. Results of {@link #query(CharSequence)} are therefore candidates, each of which
+ * must still be verified against the query.
+ *
+ * This class is not thread-safe, all access must be synchronized by the caller. A copy returned
+ * by {@link #freeze()} is never modified though, so it may be queried from any thread once it
+ * was safely published.
+ */
+public final class TrigramIndex {
+
+    /**
+     * The length of the grams in this index, the minimum query length this index can answer.
+     */
+    public static final int GRAM_LENGTH = 3;
+
+    private static final int CHAR_BITS = 10;
+
+    private static final int CHAR_MASK = (1 << CHAR_BITS) - 1;
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int INITIAL_POSTING_SIZE = 4;
+
+    /**
+     * Whether this index is a copy returned by {@link #freeze()}, which must not be modified.
+     */
+    private final boolean mReadOnly;
+
+    /**
+     * The trigram codes, in the slot of their posting list.
+     */
+    private int[] mCodes;
+
+    /**
+     * The number of trigram codes in this index.
+     */
+    private int mCodeCount;
+
+    /**
+     * The copy returned by the last {@link #freeze()}, {@code null} if this index was modified
+     * since.
+     */
+    private TrigramIndex mFrozen;
+
+    /**
+     * The posting lists of each trigram code, ascending ids, {@code null} for empty slots.
+     */
+    private int[][] mPostings;
+
+    /**
+     * The number of ids used in each posting list.
+     */
+    private int[] mPostingSizes;
+
+    /**
+     * Whether each posting list may be shared with a frozen copy. A shared posting list is
+     * copied before its ids are moved, ids are only appended to it in place, past the size the
+     * frozen copies read.
+     */
+    private boolean[] mShared;
+
+    public TrigramIndex() {
+        mReadOnly = false;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * This constructor is for the copies returned by {@link #freeze()}.
+     *
+     * @param index The index to copy.
+     */
+    private TrigramIndex(final TrigramIndex index) {
+        mReadOnly = true;
+        mCodes = index.mCodes.clone();
+        mCodeCount = index.mCodeCount;
+        mPostings = index.mPostings.clone();
+        mPostingSizes = index.mPostingSizes.clone();
+    }
+
+    /**
+     * This method returns the code of the trigram starting at {@code index}.
+     *
+     * @param key   The key to get the trigram code from.
+     * @param index The index of the first character of the trigram.
+     * @return The code of the trigram.
+     */
+    private static int getCode(final CharSequence key, final int index) {
+        return ((key.charAt(index) & CHAR_MASK) << (CHAR_BITS << 1)) |
+                ((key.charAt(index + 1) & CHAR_MASK) << CHAR_BITS) |
+                (key.charAt(index + 2) & CHAR_MASK);
+    }
+
+    /**
+     * This method intersects a posting list with the first {@code size} ids of {@code result},
+     * in place.
+     *
+     * @return The number of ids remaining in {@code result}.
+     */
+    private static int intersect(final int[] result, final int size, final int[] posting,
+            final int postingSize) {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+
+        while (i < size && j < postingSize) {
+            if (result[i] < posting[j]) {
+                i++;
+            } else if (result[i] > posting[j]) {
+                j++;
+            } else {
+                result[count] = result[i];
+                count++;
+                i++;
+                j++;
+            }
+        }
+
+        return count;
+    }
+
+    private static int mix(final int code) {
+        final int hash = code * 0x9E3779B9;
+
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * This method indexes a key.
+     *
+     * @param id  The id of the key, which must not be in this index yet.
+     * @param key The normalized search key.
+     */
+    public void add(final int id, @NonNull final CharSequence key) {
+        final int last = key.length() - GRAM_LENGTH;
+
+        checkWritable();
+        for (int i = 0; i <= last; i++) {
+            final int slot = getOrCreateSlot(getCode(key, i));
+            final int size = mPostingSizes[slot];
+            int[] posting = mPostings[slot];
+            final int index;
+
+            // Keys are mostly added in the order of their ids.
+            if (size == 0 || posting[size - 1] < id) {
+                index = size;
+            } else {
+                index = Arrays.binarySearch(posting, 0, size, id);
+            }
+
+            // Only record one id for trigrams repeated within the same key.
+            if (index < 0 || index == size) {
+                final int insertion = index < 0 ? -index - 1 : index;
+
+                if (size == posting.length) {
+                    posting = Arrays.copyOf(posting, size << 1);
+                    mPostings[slot] = posting;
+                    mShared[slot] = false;
+                } else if (insertion < size && mShared[slot]) {
+                    posting = posting.clone();
+                    mPostings[slot] = posting;
+                    mShared[slot] = false;
+                }
+
+                System.arraycopy(posting, insertion, posting, insertion + 1, size - insertion);
+                posting[insertion] = id;
+                mPostingSizes[slot] = size + 1;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        mCodes = new int[capacity];
+        mPostings = new int[capacity][];
+        mPostingSizes = new int[capacity];
+        mShared = new boolean[capacity];
+        mCodeCount = 0;
+    }
+
+    /**
+     * This method throws if this index is a frozen copy, and forgets the last frozen copy as
+     * this index is about to be modified.
+     */
+    private void checkWritable() {
+        if (mReadOnly) {
+            throw new IllegalStateException("A frozen index can't be modified.");
+        }
+
+        mFrozen = null;
+    }
+
+    /**
+     * This method removes all keys from this index.
+     */
+    public void clear() {
+        checkWritable();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private int findSlot(final int code) {
+        final int mask = mCodes.length - 1;
+        int slot = mix(code) & mask;
+
+        while (mPostings[slot] != null && mCodes[slot] != code) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * This method returns a copy of this index which is never modified, to query it without
+     * synchronization. The copy shares the posting lists of this index, so it costs a copy of
+     * the table rather than of the ids.
+     *
+     * @return The frozen copy, the same one until this index is modified.
+     */
+    @NonNull
+    public TrigramIndex freeze() {
+        if (mReadOnly) {
+            throw new IllegalStateException("A frozen index is frozen already.");
+        }
+
+        if (mFrozen == null) {
+            mFrozen = new TrigramIndex(this);
+            Arrays.fill(mShared, true);
+        }
+
+        return mFrozen;
+    }
+
+    private int getOrCreateSlot(final int code) {
+        int slot = findSlot(code);
+
+        if (mPostings[slot] == null) {
+            if (mCodeCount << 1 >= mCodes.length) {
+                grow();
+                slot = findSlot(code);
+            }
+
+            mCodes[slot] = code;
+            mPostings[slot] = new int[INITIAL_POSTING_SIZE];
+            mShared[slot] = false;
+            mCodeCount++;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        final int[] codes = mCodes;
+        final int[][] postings = mPostings;
+        final int[] sizes = mPostingSizes;
+        final boolean[] shared = mShared;
+
+        allocate(codes.length << 1);
+        for (int i = 0; i < codes.length; i++) {
+            if (postings[i] != null) {
+                final int slot = findSlot(codes[i]);
+
+                mCodes[slot] = codes[i];
+                mPostings[slot] = postings[i];
+                mPostingSizes[slot] = sizes[i];
+                mShared[slot] = shared[i];
+                mCodeCount++;
+            }
+        }
+    }
+
+    /**
+     * This method returns the ids of the keys which may contain the query.
+     *
+     * @param query The normalized query, at least {@link #GRAM_LENGTH} characters long.
+     * @return The ascending ids of the candidates.
+     */
+    @NonNull
+    public int[] query(@NonNull final CharSequence query) {
+        final int last = query.length() - GRAM_LENGTH;
+        int smallest = -1;
+
+        // Start with the shortest posting list to keep the intersections small.
+        for (int i = 0; i <= last; i++) {
+            final int slot = findSlot(getCode(query, i));
+
+            if (mPostings[slot] == null) {
+                return EMPTY;
+            }
+
+            if (smallest == -1 || mPostingSizes[slot] < mPostingSizes[smallest]) {
+                smallest = slot;
+            }
+        }
+
+        if (smallest == -1) {
+            throw new IllegalArgumentException("Query is shorter than a trigram: " + query);
+        }
+
+        final int[] result = Arrays.copyOf(mPostings[smallest], mPostingSizes[smallest]);
+        int count = result.length;
+
+        for (int i = 0; i <= last && count > 0; i++) {
+            final int slot = findSlot(getCode(query, i));
+
+            if (slot != smallest) {
+                count = intersect(result, count, mPostings[slot], mPostingSizes[slot]);
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * This method removes a key from this index.
+     *
+     * @param id The id of the removed key.
+     */
+    public void remove(final int id) {
+        removeAll(new int[]{id});
+    }
+
+    /**
+     * This method removes keys from this index, in a single pass over the posting lists.
+     *
+     * @param ids The ids of the removed keys, in any order.
+     */
+    public void removeAll(@NonNull final int[] ids) {
+        final int[] sorted = ids.clone();
+
+        checkWritable();
+        Arrays.sort(sorted);
+        for (int slot = 0; slot < mPostings.length; slot++) {
+            int[] posting = mPostings[slot];
+
+            // Emptied posting lists are kept, they are likely to be reused on reinstall.
+            if (posting != null) {
+                final int size = mPostingSizes[slot];
+                int count = 0;
+                int j = 0;
+
+                for (int i = 0; i < size; i++) {
+                    final int id = posting[i];
+
+                    while (j < sorted.length && sorted[j] < id) {
+                        j++;
+                    }
+
+                    if (j < sorted.length && sorted[j] == id) {
+                        if (mShared[slot]) {
+                            posting = posting.clone();
+                            mPostings[slot] = posting;
+                            mShared[slot] = false;
+                        }
+                    } else {
+                        if (count != i) {
+                            posting[count] = id;
+                        }
+                        count++;
+                    }
+                }
+
+                mPostingSizes[slot] = count;
+            }
+        }
+    }
+}
@@ -14,36 +14,131 @@
 
 package com.hayaisoftware.launcher.threading;
 
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * This class runs {@link Task}s on up to a number of consumer threads.
+ *
+ * The consumers are started as tasks are queued, and retire once they have been idle for
+ * {@link #IDLE_TIMEOUT_MILLIS}, so an idle manager holds no thread and can be kept for the
+ * lifetime of the process. {@link #destroyAllConsumers(boolean, boolean)} stops the consumers,
+ * optionally waiting for them to exit.
+ */
 public class SimpleTaskConsumerManager {
 
+    /**
+     * When the queue is full, the task is run by the thread submitting it.
+     */
+    public static final int POLICY_CALLER_RUNS = 2;
+
+    /**
+     * When the queue is full, the task is dropped.
+     */
+    public static final int POLICY_DROP_NEWEST = 1;
+
+    /**
+     * When the queue is full, the oldest queued task is dropped to make room for the task. The
+     * signals stopping the consumers are never dropped.
+     */
+    public static final int POLICY_DROP_OLDEST = 0;
+
+    /**
+     * When the queue is full, the task is dropped and passed to the {@link RejectionCallback}.
+     */
+    public static final int POLICY_REJECT = 3;
+
+    /**
+     * The time a consumer waits for a task before it retires.
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 30000L;
+
     private static final String INTERRUPTED_MSG = "Task was interrupted.";
 
     private static final String TAG = "SimpleTaskManager";
 
+    private final AtomicInteger mAcceptedCount = new AtomicInteger();
+
+    private final AtomicInteger mCallerRunsCount = new AtomicInteger();
+
+    private final AtomicInteger mDroppedNewestCount = new AtomicInteger();
+
+    private final AtomicInteger mDroppedOldestCount = new AtomicInteger();
+
+    /**
+     * The time a consumer waits for a task before it retires.
+     */
+    private final long mIdleTimeoutMillis;
+
+    /**
+     * Synchronize to this lock when starting, retiring or stopping consumers.
+     */
+    private final Object mLock = new Object();
+
+    private final int mNumConsumers;
+
+    private final int mPolicy;
+
+    @Nullable
+    private final RejectionCallback mRejectionCallback;
+
+    private final AtomicInteger mRejectedCount = new AtomicInteger();
+
     private final BlockingQueue<Task> mTasks;
 
-    private final Thread[] mThreads;
+    /**
+     * The live consumers.
+     */
+    private final List<Thread> mThreads = new ArrayList<>();
 
-    private boolean mSubmissionsAccepted = true;
+    private volatile boolean mSubmissionsAccepted = true;
+
+    /**
+     * Constructor
+     *
+     * @param numConsumers      The number of threads running the tasks.
+     * @param queueSize         The maximum number of queued tasks, unbounded if lower than 1.
+     * @param policy            What to do with a task submitted while the queue is full, one of
+     *                          {@link #POLICY_DROP_OLDEST}, {@link #POLICY_DROP_NEWEST},
+     *                          {@link #POLICY_CALLER_RUNS} or {@link #POLICY_REJECT}.
+     * @param rejectionCallback The callback of the rejected tasks, with {@link #POLICY_REJECT}.
+     */
+    public SimpleTaskConsumerManager(final int numConsumers, final int queueSize,
+            final int policy, @Nullable final RejectionCallback rejectionCallback) {
+        this(numConsumers, queueSize, policy, rejectionCallback, IDLE_TIMEOUT_MILLIS);
+    }
+
+    @VisibleForTesting
+    SimpleTaskConsumerManager(final int numConsumers, final int queueSize, final int policy,
+            @Nullable final RejectionCallback rejectionCallback, final long idleTimeoutMillis) {
+        if (policy < POLICY_DROP_OLDEST || policy > POLICY_REJECT) {
+            throw new IllegalArgumentException("Unknown submission policy: " + policy);
+        }
 
-    public SimpleTaskConsumerManager(final int numConsumers, final int queueSize) {
         if (queueSize < 1) {
             mTasks = new LinkedBlockingQueue<>();
         } else {
             mTasks = new ArrayBlockingQueue<>(queueSize);
         }
 
-        mThreads = new Thread[numConsumers];
-        for (int i = 0; i < numConsumers; i++) {
-            mThreads[i] = new Thread(new SimpleTaskConsumer(mTasks));
-            mThreads[i].start();
-        }
+        mIdleTimeoutMillis = idleTimeoutMillis;
+        mNumConsumers = numConsumers;
+        mPolicy = policy;
+        mRejectionCallback = rejectionCallback;
+    }
+
+    public SimpleTaskConsumerManager(final int numConsumers, final int queueSize) {
+        this(numConsumers, queueSize, POLICY_DROP_NEWEST, null);
     }
 
     public SimpleTaskConsumerManager(final int numConsumers) {
@@ -58,38 +153,77 @@ public class SimpleTaskConsumerManager {
         }
     }
 
-    public void addTask(final Task task) {
-        if (mSubmissionsAccepted) {
-            putTask(mTasks, task);
+    /**
+     * This method queues a task, without blocking. If the queue is full, the task is handled
+     * according to the submission policy of this manager.
+     *
+     * @param task The task to queue.
+     * @return The handle of the task, to cancel it if it hasn't started yet. The handle is
+     * already cancelled if submissions are no longer accepted, or if the task was dropped.
+     */
+    public TaskHandle addTask(final Task task) {
+        final TaskHandle handle = new TaskHandle(task, mTasks);
+
+        if (!mSubmissionsAccepted) {
+            handle.cancel();
+        } else {
+            if (mTasks.offer(handle)) {
+                mAcceptedCount.incrementAndGet();
+            } else {
+                onQueueFull(handle, task);
+            }
+
+            startConsumerIfNeeded();
         }
+
+        return handle;
     }
 
-    private void blockThreadsUntilFinished() {
-        for (final Thread thread : mThreads) {
-            try {
-                thread.join();
-            } catch (final InterruptedException e) {
-                Log.e(TAG, INTERRUPTED_MSG, e);
+    private static void blockThreadsUntilFinished(final Iterable<Thread> threads) {
+        for (final Thread thread : threads) {
+            // A consumer stopping its own manager can't wait for itself.
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    Log.e(TAG, INTERRUPTED_MSG, e);
+                }
             }
         }
     }
 
+    /**
+     * This method stops the consumers. No task is accepted afterwards.
+     *
+     * @param finishCurrentTasks {@code true} to let the consumers run the queued tasks first,
+     *                           {@code false} to drop them and interrupt the consumers.
+     * @param blockUntilFinished {@code true} to wait for all the consumers to exit.
+     */
     public void destroyAllConsumers(final boolean finishCurrentTasks,
             final boolean blockUntilFinished) {
-        if (mSubmissionsAccepted) {
-            mSubmissionsAccepted = false;
+        final List<Thread> threads;
 
+        synchronized (mLock) {
+            if (mSubmissionsAccepted) {
+                mSubmissionsAccepted = false;
+                threads = new ArrayList<>(mThreads);
+            } else {
+                threads = null;
+            }
+        }
+
+        if (threads != null) {
             if (finishCurrentTasks) {
                 final Task dieTask = new DieTask();
-                for (final Thread mThread : mThreads) {
+                for (final Thread thread : threads) {
                     putTask(mTasks, dieTask);
                 }
-
-                if (blockUntilFinished) {
-                    blockThreadsUntilFinished();
-                }
             } else {
-                removeAllTasks();
+                removeAllTasks(threads);
+            }
+
+            if (blockUntilFinished) {
+                blockThreadsUntilFinished(threads);
             }
         }
     }
@@ -98,19 +232,139 @@ public class SimpleTaskConsumerManager {
         destroyAllConsumers(finishCurrentTasks, false);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        //make sure the threads are properly killed
-        destroyAllConsumers(false);
+    public int getAcceptedCount() {
+        return mAcceptedCount.get();
+    }
 
-        super.finalize();
+    public int getCallerRunsCount() {
+        return mCallerRunsCount.get();
     }
 
-    private void removeAllTasks() {
-        for (final Thread thread : mThreads) {
-            thread.interrupt();
+    /**
+     * This method returns the number of live consumers.
+     *
+     * @return The number of consumer threads which have not retired.
+     */
+    @VisibleForTesting
+    int getConsumerCount() {
+        synchronized (mLock) {
+            return mThreads.size();
         }
+    }
+
+    public int getDroppedNewestCount() {
+        return mDroppedNewestCount.get();
+    }
+
+    public int getDroppedOldestCount() {
+        return mDroppedOldestCount.get();
+    }
+
+    public int getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * This method handles a task submitted while the queue is full, according to the submission
+     * policy.
+     *
+     * @param handle The handle of the task.
+     * @param task   The task.
+     */
+    private void onQueueFull(final TaskHandle handle, final Task task) {
+        boolean queued;
+
+        switch (mPolicy) {
+            case POLICY_DROP_OLDEST:
+                do {
+                    final Task oldest = mTasks.poll();
+
+                    if (oldest instanceof TaskHandle) {
+                        if (((TaskHandle) oldest).cancel()) {
+                            mDroppedOldestCount.incrementAndGet();
+                        }
+                    } else if (oldest != null) {
+                        // The consumers are stopping, they must not miss their signal to exit.
+                        putTask(mTasks, oldest);
+                    }
+
+                    queued = mSubmissionsAccepted && mTasks.offer(handle);
+                } while (!queued && mSubmissionsAccepted);
+
+                if (queued) {
+                    mAcceptedCount.incrementAndGet();
+                } else {
+                    handle.cancel();
+                }
+                break;
+            case POLICY_CALLER_RUNS:
+                mCallerRunsCount.incrementAndGet();
+                handle.doTask();
+                break;
+            case POLICY_REJECT:
+                mRejectedCount.incrementAndGet();
+                handle.cancel();
+
+                if (mRejectionCallback != null) {
+                    mRejectionCallback.onTaskRejected(task);
+                }
+                break;
+            default:
+                mDroppedNewestCount.incrementAndGet();
+                handle.cancel();
+                break;
+        }
+    }
+
+    private void removeAllTasks(final Iterable<Thread> threads) {
         mTasks.clear();
+        for (final Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * This method retires the calling consumer if no task is queued, or if this manager is
+     * stopped.
+     *
+     * @return {@code true} if the consumer retired and must exit.
+     */
+    private boolean retireIfIdle() {
+        final boolean retired;
+
+        synchronized (mLock) {
+            retired = mTasks.isEmpty() || !mSubmissionsAccepted;
+
+            if (retired) {
+                mThreads.remove(Thread.currentThread());
+            }
+        }
+
+        return retired;
+    }
+
+    private void startConsumerIfNeeded() {
+        synchronized (mLock) {
+            if (mSubmissionsAccepted && mThreads.size() < mNumConsumers) {
+                final Thread thread = new Thread(new SimpleTaskConsumer(), TAG);
+
+                mThreads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * This interface is called with the tasks rejected by {@link #POLICY_REJECT}.
+     */
+    public interface RejectionCallback {
+
+        /**
+         * Called from the thread which submitted the task.
+         *
+         * @param task The rejected task.
+         */
+        void onTaskRejected(Task task);
     }
 
     public interface Task {
@@ -119,6 +373,74 @@ public class SimpleTaskConsumerManager {
         boolean doTask();
     }
 
+    /**
+     * This class is the handle of a queued {@link Task}, which runs it unless cancelled first.
+     */
+    public static final class TaskHandle implements Task {
+
+        private static final int CANCELLED = 3;
+
+        private static final int DONE = 2;
+
+        private static final int PENDING = 0;
+
+        private static final int RUNNING = 1;
+
+        private final AtomicInteger mState = new AtomicInteger(PENDING);
+
+        private final Task mTask;
+
+        /**
+         * The queue to remove the handle from when cancelled, {@code null} to leave it queued and
+         * skip it once it is taken.
+         */
+        @Nullable
+        private final Collection<Task> mTasks;
+
+        TaskHandle(final Task task, @Nullable final Collection<Task> tasks) {
+            mTask = task;
+            mTasks = tasks;
+        }
+
+        /**
+         * This method cancels the task, removing it from the queue, if it hasn't started yet.
+         *
+         * @return {@code true} if the task was cancelled, {@code false} if it already started.
+         */
+        public boolean cancel() {
+            final boolean cancelled = mState.compareAndSet(PENDING, CANCELLED);
+
+            if (cancelled && mTasks != null) {
+                mTasks.remove(this);
+            }
+
+            return cancelled;
+        }
+
+        @Override
+        public boolean doTask() {
+            boolean keepRunning = true;
+
+            if (mState.compareAndSet(PENDING, RUNNING)) {
+                try {
+                    keepRunning = mTask.doTask();
+                } finally {
+                    mState.set(DONE);
+                }
+            }
+
+            return keepRunning;
+        }
+
+        public boolean isCancelled() {
+            return mState.get() == CANCELLED;
+        }
+
+        public boolean isDone() {
+            return mState.get() == DONE;
+        }
+    }
+
     //Dummy task, does nothing. Used to properly wake the threads to kill them.
     private static final class DieTask implements Task {
 
@@ -128,26 +450,32 @@ public class SimpleTaskConsumerManager {
         }
     }
 
-    private static final class SimpleTaskConsumer implements Runnable {
-
-        private final BlockingQueue<Task> mTasks;
-
-        private SimpleTaskConsumer(final BlockingQueue<Task> tasks) {
-            mTasks = tasks;
-        }
+    private final class SimpleTaskConsumer implements Runnable {
 
         @Override
         public void run() {
-            Task task = null;
+            boolean running = true;
+
+            while (running) {
+                Task task = null;
 
-            do {
                 try {
-                    task = mTasks.take();
+                    task = mTasks.poll(mIdleTimeoutMillis, TimeUnit.MILLISECONDS);
                 } catch (final InterruptedException e) {
                     // Interruption is part of the lifecycle here.
                     Log.v(TAG, INTERRUPTED_MSG, e);
                 }
-            } while (task == null || task.doTask());
+
+                if (task == null) {
+                    running = !retireIfIdle();
+                } else if (!task.doTask()) {
+                    synchronized (mLock) {
+                        mThreads.remove(Thread.currentThread());
+                    }
+
+                    running = false;
+                }
+            }
         }
     }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.threading;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is the process-wide pool running the {@link SimpleTaskConsumerManager.Task}s of the
+ * launcher on a bounded number of threads.
+ *
+ * Each worker has its own deques, one per lane, holding the tasks submitted from that worker. A
+ * worker takes its own newest task first, then the oldest task submitted from outside of the
+ * pool, and steals the oldest task of another worker when there is none, so the threads stay busy
+ * without contending on a single queue. Tasks submitted from outside of the pool, such as the
+ * first screen of launchables or the icons on screen, therefore run in submission order. The
+ * lanes are strictly ordered: no task is taken from a lane while a task is queued in a more
+ * urgent lane.
+ *
+ * The thread of a worker is started when a task is submitted while too few workers are idle, and
+ * exits once it has been idle for {@link #IDLE_TIMEOUT_MILLIS}, so the scheduler holds no thread
+ * while the launcher is idle. The value returned by
+ * {@link SimpleTaskConsumerManager.Task#doTask()} is ignored.
+ */
+public final class TaskScheduler {
+
+    /**
+     * The lane of the maintenance tasks, which nothing on screen waits for.
+     */
+    public static final int LANE_BACKGROUND = 2;
+
+    /**
+     * The lane of the tasks preparing what will soon be on screen.
+     */
+    public static final int LANE_PREFETCH = 1;
+
+    /**
+     * The lane of the tasks the user is waiting for.
+     */
+    public static final int LANE_UI_CRITICAL = 0;
+
+    /**
+     * The time a worker waits for a task before its thread exits.
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 30000L;
+
+    private static final String INTERRUPTED_MSG = "Worker was interrupted.";
+
+    private static final int LANE_COUNT = 3;
+
+    private static final int MAX_WORKERS = 8;
+
+    private static final int MIN_WORKERS = 2;
+
+    private static final String TAG = "TaskScheduler";
+
+    private static TaskScheduler sInstance;
+
+    /**
+     * The worker run by the current thread, if it is a thread of this scheduler.
+     */
+    private final ThreadLocal<Worker> mCurrentWorker = new ThreadLocal<>();
+
+    /**
+     * The tasks submitted from outside of the pool, by lane, oldest first. Synchronize to this
+     * array when accessing them.
+     */
+    private final Deque<SimpleTaskConsumerManager.Task>[] mExternalLanes;
+
+    /**
+     * Synchronize to this lock when waiting for tasks, waking the idle workers, or starting and
+     * retiring the threads of the workers.
+     */
+    private final Object mIdleLock = new Object();
+
+    /**
+     * The time a worker waits for a task before its thread exits.
+     */
+    private final long mIdleTimeoutMillis;
+
+    /**
+     * The number of tasks queued in all the deques.
+     */
+    private final AtomicInteger mQueuedCount = new AtomicInteger();
+
+    private final AtomicInteger mStolenCount = new AtomicInteger();
+
+    private final Worker[] mWorkers;
+
+    private int mIdleCount;
+
+    @VisibleForTesting
+    @SuppressWarnings("unchecked")
+    TaskScheduler(final int workerCount, final long idleTimeoutMillis) {
+        mExternalLanes = new Deque[LANE_COUNT];
+        mIdleTimeoutMillis = idleTimeoutMillis;
+        mWorkers = new Worker[workerCount];
+
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mExternalLanes[i] = new ArrayDeque<>();
+        }
+
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Worker(i);
+        }
+    }
+
+    /**
+     * This method returns the process-wide scheduler, starting it the first time.
+     *
+     * @return The scheduler.
+     */
+    @NonNull
+    public static synchronized TaskScheduler getInstance() {
+        if (sInstance == null) {
+            final int cores = Runtime.getRuntime().availableProcessors();
+
+            sInstance = new TaskScheduler(Math.max(MIN_WORKERS, Math.min(cores, MAX_WORKERS)),
+                    IDLE_TIMEOUT_MILLIS);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * This method returns the number of workers whose thread is running.
+     *
+     * @return The number of running workers.
+     */
+    @VisibleForTesting
+    int getRunningCount() {
+        int running = 0;
+
+        synchronized (mIdleLock) {
+            for (final Worker worker : mWorkers) {
+                if (worker.mRunning) {
+                    running++;
+                }
+            }
+        }
+
+        return running;
+    }
+
+    /**
+     * This method returns the number of tasks a worker took from the deques of another worker.
+     *
+     * @return The number of stolen tasks.
+     */
+    public int getStolenCount() {
+        return mStolenCount.get();
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * This method submits a task, without blocking.
+     *
+     * @param task The task to run.
+     * @param lane The lane of the task, {@link #LANE_UI_CRITICAL}, {@link #LANE_PREFETCH} or
+     *             {@link #LANE_BACKGROUND}.
+     * @return The handle of the task, to cancel it if it hasn't started yet.
+     */
+    @NonNull
+    public SimpleTaskConsumerManager.TaskHandle submit(
+            @NonNull final SimpleTaskConsumerManager.Task task, final int lane) {
+        final SimpleTaskConsumerManager.TaskHandle handle =
+                new SimpleTaskConsumerManager.TaskHandle(task, null);
+        final Worker worker = mCurrentWorker.get();
+
+        if (lane < LANE_UI_CRITICAL || lane >= LANE_COUNT) {
+            throw new IllegalArgumentException("Unknown lane: " + lane);
+        }
+
+        if (worker == null) {
+            synchronized (mExternalLanes) {
+                mExternalLanes[lane].addLast(handle);
+                mQueuedCount.incrementAndGet();
+            }
+        } else {
+            worker.push(handle, lane);
+        }
+
+        synchronized (mIdleLock) {
+            if (mIdleCount > 0) {
+                mIdleLock.notify();
+            }
+
+            if (mQueuedCount.get() > mIdleCount) {
+                startWorker(worker);
+            }
+        }
+
+        return handle;
+    }
+
+    /**
+     * This method polls the oldest task submitted from outside of the pool in a lane.
+     *
+     * @param lane The lane to poll.
+     * @return The task, {@code null} if none is queued in the lane.
+     */
+    @Nullable
+    private SimpleTaskConsumerManager.Task pollExternal(final int lane) {
+        final SimpleTaskConsumerManager.Task task;
+
+        synchronized (mExternalLanes) {
+            task = mExternalLanes[lane].pollFirst();
+
+            if (task != null) {
+                mQueuedCount.decrementAndGet();
+            }
+        }
+
+        return task;
+    }
+
+    /**
+     * This method starts the thread of a worker whose thread exited, the given one if possible.
+     * Any worker can run the task just submitted, as the workers steal each other's tasks.
+     *
+     * This must be called with {@link #mIdleLock} held.
+     *
+     * @param preferred The worker the task was pushed to, {@code null} if it was submitted from
+     *                  outside of the pool.
+     */
+    private void startWorker(@Nullable final Worker preferred) {
+        Worker retired = null;
+
+        if (preferred == null || preferred.mRunning) {
+            for (int i = 0; i < mWorkers.length && retired == null; i++) {
+                if (!mWorkers[i].mRunning) {
+                    retired = mWorkers[i];
+                }
+            }
+        } else {
+            retired = preferred;
+        }
+
+        if (retired != null) {
+            retired.mRunning = true;
+            new Thread(retired, TAG + '-' + retired.mIndex).start();
+        }
+    }
+
+    /**
+     * This method takes the next task of a worker: its own newest task of the most urgent lane,
+     * else the oldest task submitted from outside of the pool in that lane, else the oldest task
+     * of another worker in that lane.
+     *
+     * @param worker The worker taking a task.
+     * @return The task, {@code null} if no task is queued.
+     */
+    @Nullable
+    private SimpleTaskConsumerManager.Task take(final Worker worker) {
+        SimpleTaskConsumerManager.Task task = null;
+
+        for (int lane = LANE_UI_CRITICAL; lane < LANE_COUNT && task == null; lane++) {
+            task = worker.pollNewest(lane);
+
+            if (task == null) {
+                task = pollExternal(lane);
+            }
+
+            for (int i = 1; i < mWorkers.length && task == null; i++) {
+                task = mWorkers[(worker.mIndex + i) % mWorkers.length].pollOldest(lane);
+
+                if (task != null) {
+                    mStolenCount.incrementAndGet();
+                }
+            }
+        }
+
+        return task;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskScheduler{" +
+                "workers=" + mWorkers.length +
+                ", queued=" + mQueuedCount.get() +
+                ", stolen=" + mStolenCount.get() +
+                '}';
+    }
+
+    /**
+     * This method waits for a task to be queued, and retires the thread of a worker if none was
+     * queued for the idle timeout.
+     *
+     * @param worker The worker of the calling thread.
+     * @return {@code true} if the thread of the worker retired and must exit.
+     */
+    private boolean waitForTasks(final Worker worker) {
+        final long deadline = System.currentTimeMillis() + mIdleTimeoutMillis;
+        final boolean retired;
+
+        synchronized (mIdleLock) {
+            mIdleCount++;
+
+            try {
+                long remaining = mIdleTimeoutMillis;
+
+                while (mQueuedCount.get() == 0 && remaining > 0L) {
+                    mIdleLock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (final InterruptedException e) {
+                Log.v(TAG, INTERRUPTED_MSG, e);
+            } finally {
+                mIdleCount--;
+            }
+
+            retired = mQueuedCount.get() == 0;
+
+            if (retired) {
+                worker.mRunning = false;
+            }
+        }
+
+        return retired;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final int mIndex;
+
+        /**
+         * The deques of this worker, by lane. Synchronize to this array when accessing them.
+         */
+        private final Deque<SimpleTaskConsumerManager.Task>[] mLanes;
+
+        /**
+         * Whether a thread runs this worker. Synchronize to {@link #mIdleLock} when accessing it.
+         */
+        private boolean mRunning;
+
+        @SuppressWarnings("unchecked")
+        private Worker(final int index) {
+            mIndex = index;
+            mLanes = new Deque[LANE_COUNT];
+
+            for (int i = 0; i < LANE_COUNT; i++) {
+                mLanes[i] = new ArrayDeque<>();
+            }
+        }
+
+        @Nullable
+        private SimpleTaskConsumerManager.Task pollNewest(final int lane) {
+            final SimpleTaskConsumerManager.Task task;
+
+            synchronized (mLanes) {
+                task = mLanes[lane].pollLast();
+
+                if (task != null) {
+                    mQueuedCount.decrementAndGet();
+                }
+            }
+
+            return task;
+        }
+
+        @Nullable
+        private SimpleTaskConsumerManager.Task pollOldest(final int lane) {
+            final SimpleTaskConsumerManager.Task task;
+
+            synchronized (mLanes) {
+                task = mLanes[lane].pollFirst();
+
+                if (task != null) {
+                    mQueuedCount.decrementAndGet();
+                }
+            }
+
+            return task;
+        }
+
+        private void push(final SimpleTaskConsumerManager.Task task, final int lane) {
+            synchronized (mLanes) {
+                mLanes[lane].addLast(task);
+                mQueuedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean running = true;
+
+            mCurrentWorker.set(this);
+            while (running) {
+                final SimpleTaskConsumerManager.Task task = take(this);
+
+                if (task == null) {
+                    running = !waitForTasks(this);
+                } else {
+                    task.doTask();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the upgrades of the {@link LaunchableActivityPrefs} database from its earlier
+ * versions, and its fallback for tables missing columns.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LaunchableActivityPrefsTest {
+
+    private static final String CALCULATOR = "com.example.calculator.Calculator";
+
+    private static final String CAMERA = "com.example.camera.Camera";
+
+    private static final String DATABASE_NAME = "ActivityLaunchNumbers";
+
+    private static final String PACKAGENAME_INDEX = "PackageNameIndex";
+
+    /**
+     * The sample tables, by version. The layouts of versions 1 and 2 aren't recorded, so their
+     * tables are synthetic: version 1 has no class name to keep the rows by, version 2 misses the
+     * favorite column. They only exercise the fallback for missing columns.
+     */
+    private static final String[] TABLES = {
+            null,
+            "CREATE TABLE ActivityLaunchNumbers (Id INTEGER PRIMARY KEY, Label TEXT, " +
+                    "UsageQuantity INTEGER);",
+            "CREATE TABLE ActivityLaunchNumbers (Id INTEGER PRIMARY KEY, " +
+                    "ClassName TEXT UNIQUE, LastLaunchTimestamp INTEGER, UsageQuantity INTEGER);",
+            "CREATE TABLE ActivityLaunchNumbers (Id INTEGER PRIMARY KEY, " +
+                    "ClassName TEXT UNIQUE, LastLaunchTimestamp INTEGER, Favorite INTEGER, " +
+                    "UsageQuantity INTEGER);",
+            "CREATE TABLE ActivityLaunchNumbers (Id INTEGER PRIMARY KEY, " +
+                    "ClassName TEXT UNIQUE, LastLaunchTimestamp INTEGER, Favorite INTEGER, " +
+                    "UsageQuantity INTEGER, PackageName TEXT);"
+    };
+
+    private Context mContext;
+
+    private LaunchableActivityPrefs mPrefs;
+
+    /**
+     * This method upgrades a sample database which has all the version 3 columns, and checks
+     * that its rows were kept.
+     *
+     * @param version The version of the sample database.
+     */
+    private void assertRowsKept(final int version) {
+        createDatabase(version);
+        mPrefs = LaunchableActivityPrefs.acquire(mContext);
+
+        final LaunchableActivity calculator = getLaunchable(CALCULATOR);
+        final LaunchableActivity camera = getLaunchable(CAMERA);
+
+        mPrefs.setPreferences(Arrays.asList(calculator, camera));
+        assertEquals(1000L, calculator.getLaunchTime());
+        assertEquals(3, calculator.getUsageQuantity());
+        assertEquals(1, camera.getPriority());
+        assertEquals(0, camera.getUsageQuantity());
+        assertUpgraded();
+    }
+
+    /**
+     * This method checks that the database has the version 5 layout.
+     */
+    private void assertUpgraded() {
+        final Collection<String> columns = getNames("table_info");
+
+        assertEquals(5, mPrefs.getReadableDatabase().getVersion());
+        assertEquals(new HashSet<>(Arrays.asList("id", "classname", "lastlaunchtimestamp",
+                "favorite", "usagequantity", "packagename")), columns);
+        assertTrue(getNames("index_list").contains(PACKAGENAME_INDEX.toLowerCase(Locale.US)));
+    }
+
+    /**
+     * This method writes a sample database of an earlier version.
+     *
+     * @param version The version of the database.
+     */
+    private void createDatabase(final int version) {
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+
+        try {
+            db.execSQL(TABLES[version]);
+
+            if (version == 1) {
+                db.execSQL("INSERT INTO ActivityLaunchNumbers (Label, UsageQuantity) " +
+                        "VALUES ('Calculator', 3)");
+            } else if (version == 2) {
+                db.execSQL("INSERT INTO ActivityLaunchNumbers (ClassName, " +
+                        "LastLaunchTimestamp, UsageQuantity) VALUES ('" + CALCULATOR +
+                        "', 1000, 3)");
+            } else {
+                db.execSQL("INSERT INTO ActivityLaunchNumbers (ClassName, " +
+                        "LastLaunchTimestamp, Favorite, UsageQuantity) VALUES ('" + CALCULATOR +
+                        "', 1000, 0, 3)");
+                db.execSQL("INSERT INTO ActivityLaunchNumbers (ClassName, Favorite) " +
+                        "VALUES ('" + CAMERA + "', 1)");
+            }
+
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static LaunchableActivity getLaunchable(final String className) {
+        final String packageName = className.substring(0, className.lastIndexOf('.'));
+
+        return LaunchableActivity.getLaunchable(new ComponentName(packageName, className),
+                className.substring(packageName.length() + 1), 0);
+    }
+
+    /**
+     * This method returns the names of the results of a pragma on the table, in lower case as
+     * SQLite names are case insensitive.
+     *
+     * @param pragma The pragma, such as {@code table_info} or {@code index_list}.
+     * @return The names of the results.
+     */
+    private Collection<String> getNames(final String pragma) {
+        final Cursor cursor = mPrefs.getReadableDatabase().rawQuery(
+                "PRAGMA " + pragma + '(' + DATABASE_NAME + ')', null);
+        final Collection<String> names = new HashSet<>();
+
+        try {
+            final int nameColumn = cursor.getColumnIndexOrThrow("name");
+
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(nameColumn).toLowerCase(Locale.US));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return names;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPrefs != null) {
+            mPrefs.release();
+            mPrefs = null;
+        }
+
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void testCreate() {
+        mPrefs = LaunchableActivityPrefs.acquire(mContext);
+
+        assertTrue(mPrefs.getAllPreferences().isEmpty());
+        assertUpgraded();
+    }
+
+    @Test
+    public void testSyntheticFallbackWithoutClassName() {
+        createDatabase(1);
+        mPrefs = LaunchableActivityPrefs.acquire(mContext);
+
+        // The rows can't be matched to an activity without their class name.
+        assertTrue(mPrefs.getAllPreferences().isEmpty());
+        assertUpgraded();
+    }
+
+    @Test
+    public void testSyntheticFallbackWithoutFavorite() {
+        createDatabase(2);
+        mPrefs = LaunchableActivityPrefs.acquire(mContext);
+
+        final LaunchableActivity calculator = getLaunchable(CALCULATOR);
+
+        mPrefs.setPreferences(Arrays.asList(calculator));
+        assertEquals(1000L, calculator.getLaunchTime());
+        assertEquals(0, calculator.getPriority());
+        assertEquals(3, calculator.getUsageQuantity());
+        assertUpgraded();
+    }
+
+    @Test
+    public void testUpgradeFromVersion3() {
+        assertRowsKept(3);
+    }
+
+    @Test
+    public void testUpgradeFromVersion4() {
+        assertRowsKept(4);
+    }
+
+    @Test
+    public void testWriteAfterUpgrade() {
+        createDatabase(3);
+        mPrefs = LaunchableActivityPrefs.acquire(mContext);
+
+        final LaunchableActivity calculator = getLaunchable(CALCULATOR);
+
+        calculator.addUsage();
+        mPrefs.writePreferences(Collections.singletonMap(CALCULATOR,
+                new LaunchableActivityPrefs.Row(calculator)));
+
+        final Map<String, LaunchableActivityPrefs.Row> rows = mPrefs.getAllPreferences();
+
+        assertEquals(2, rows.size());
+        assertEquals(1, mPrefs.deletePackage(calculator.getComponent().getPackageName()));
+        assertFalse(mPrefs.getAllPreferences().containsKey(CALCULATOR));
+    }
+}
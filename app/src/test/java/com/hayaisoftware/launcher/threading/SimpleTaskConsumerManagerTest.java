@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.threading;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the consumer threads of the {@link SimpleTaskConsumerManager}.
+ */
+public class SimpleTaskConsumerManagerTest {
+
+    private static final int CONSUMERS = 2;
+
+    /**
+     * The number of times the launcher activity is recreated.
+     */
+    private static final int RECREATIONS = 500;
+
+    private static final long SHORT_IDLE_TIMEOUT_MILLIS = 100L;
+
+    /**
+     * The number of times a manager is stopped while tasks are submitted to it.
+     */
+    private static final int SHUTDOWNS = 200;
+
+    private static final long WAIT_MILLIS = 5000L;
+
+    /**
+     * This method waits until all the consumers of a manager retired.
+     *
+     * @param manager The manager.
+     * @return {@code true} if the consumers retired in time.
+     */
+    private static boolean awaitRetirement(final SimpleTaskConsumerManager manager)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+
+        while (manager.getConsumerCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        return manager.getConsumerCount() == 0;
+    }
+
+    /**
+     * This method creates a manager with a single consumer and a single queued task, and blocks
+     * its consumer until released.
+     *
+     * @param policy   The submission policy of the manager.
+     * @param callback The callback of the rejected tasks.
+     * @param release  The latch releasing the consumer.
+     * @return The manager, whose consumer is blocked.
+     */
+    private static SimpleTaskConsumerManager blockedManager(final int policy,
+            final SimpleTaskConsumerManager.RejectionCallback callback,
+            final CountDownLatch release) throws InterruptedException {
+        final SimpleTaskConsumerManager manager =
+                new SimpleTaskConsumerManager(1, 1, policy, callback, WAIT_MILLIS);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        manager.addTask(new SimpleTaskConsumerManager.Task() {
+            @Override
+            public boolean doTask() {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return true;
+            }
+        });
+        assertTrue(started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+        return manager;
+    }
+
+    private static SimpleTaskConsumerManager.Task countDown(final CountDownLatch latch) {
+        return new SimpleTaskConsumerManager.Task() {
+            @Override
+            public boolean doTask() {
+                latch.countDown();
+
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testCallerRunsPolicy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final SimpleTaskConsumerManager manager = blockedManager(
+                SimpleTaskConsumerManager.POLICY_CALLER_RUNS, null, release);
+        final AtomicReference<Thread> runner = new AtomicReference<>();
+        final SimpleTaskConsumerManager.TaskHandle queued =
+                manager.addTask(countDown(new CountDownLatch(1)));
+        final SimpleTaskConsumerManager.TaskHandle newest =
+                manager.addTask(new SimpleTaskConsumerManager.Task() {
+                    @Override
+                    public boolean doTask() {
+                        runner.set(Thread.currentThread());
+
+                        return true;
+                    }
+                });
+
+        // The queue is full, so the newest task already ran on this thread.
+        assertTrue(newest.isDone());
+        assertSame(Thread.currentThread(), runner.get());
+        assertEquals(1, manager.getCallerRunsCount());
+        assertEquals(2, manager.getAcceptedCount());
+
+        release.countDown();
+        manager.destroyAllConsumers(true, true);
+        assertTrue(queued.isDone());
+    }
+
+    @Test
+    public void testDropNewestPolicy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final SimpleTaskConsumerManager manager = blockedManager(
+                SimpleTaskConsumerManager.POLICY_DROP_NEWEST, null, release);
+        final CountDownLatch newestRan = new CountDownLatch(1);
+        final SimpleTaskConsumerManager.TaskHandle queued =
+                manager.addTask(countDown(new CountDownLatch(1)));
+        final SimpleTaskConsumerManager.TaskHandle newest = manager.addTask(countDown(newestRan));
+
+        assertTrue(newest.isCancelled());
+        assertFalse(queued.isCancelled());
+        assertEquals(1, manager.getDroppedNewestCount());
+        assertEquals(2, manager.getAcceptedCount());
+
+        release.countDown();
+        manager.destroyAllConsumers(true, true);
+        assertTrue(queued.isDone());
+        assertEquals(1L, newestRan.getCount());
+    }
+
+    @Test
+    public void testDropOldestKeepsShutdownSignals() throws InterruptedException {
+        for (int i = 0; i < SHUTDOWNS; i++) {
+            // The default idle timeout, so a consumer missing its signal outlives the wait.
+            final SimpleTaskConsumerManager manager = new SimpleTaskConsumerManager(CONSUMERS, 1,
+                    SimpleTaskConsumerManager.POLICY_DROP_OLDEST, null);
+            final CountDownLatch submitting = new CountDownLatch(1);
+            final Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SimpleTaskConsumerManager.TaskHandle handle;
+
+                    do {
+                        handle = manager.addTask(countDown(new CountDownLatch(1)));
+                        submitting.countDown();
+                    } while (!handle.isCancelled());
+                }
+            });
+            final long start = System.currentTimeMillis();
+
+            submitter.start();
+            assertTrue(submitting.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            manager.destroyAllConsumers(true, true);
+            submitter.join(WAIT_MILLIS);
+
+            assertFalse(submitter.isAlive());
+            assertEquals(0, manager.getConsumerCount());
+            assertTrue(System.currentTimeMillis() - start < WAIT_MILLIS);
+        }
+    }
+
+    @Test
+    public void testDropOldestPolicy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final SimpleTaskConsumerManager manager = blockedManager(
+                SimpleTaskConsumerManager.POLICY_DROP_OLDEST, null, release);
+        final CountDownLatch oldestRan = new CountDownLatch(1);
+        final SimpleTaskConsumerManager.TaskHandle oldest = manager.addTask(countDown(oldestRan));
+        final SimpleTaskConsumerManager.TaskHandle newest =
+                manager.addTask(countDown(new CountDownLatch(1)));
+
+        assertTrue(oldest.isCancelled());
+        assertFalse(newest.isCancelled());
+        assertEquals(1, manager.getDroppedOldestCount());
+        assertEquals(3, manager.getAcceptedCount());
+
+        release.countDown();
+        manager.destroyAllConsumers(true, true);
+        assertTrue(newest.isDone());
+        assertEquals(1L, oldestRan.getCount());
+    }
+
+    @Test
+    public void testIdleConsumersRetire() throws InterruptedException {
+        final SimpleTaskConsumerManager manager = new SimpleTaskConsumerManager(CONSUMERS, 0,
+                SimpleTaskConsumerManager.POLICY_DROP_NEWEST, null, SHORT_IDLE_TIMEOUT_MILLIS);
+
+        for (int round = 0; round < 2; round++) {
+            final CountDownLatch done = new CountDownLatch(CONSUMERS * 4);
+
+            for (int i = 0; i < CONSUMERS * 4; i++) {
+                manager.addTask(countDown(done));
+            }
+
+            // The consumers retire, and are started again by the next round.
+            assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            assertTrue(awaitRetirement(manager));
+        }
+    }
+
+    @Test
+    public void testRecreationsKeepThreadsBounded() throws InterruptedException {
+        final int threads = Thread.activeCount();
+
+        for (int i = 0; i < RECREATIONS; i++) {
+            // A manager per activity, stopped when the activity is destroyed.
+            final SimpleTaskConsumerManager manager = new SimpleTaskConsumerManager(CONSUMERS);
+            final CountDownLatch done = new CountDownLatch(CONSUMERS * 2);
+
+            for (int j = 0; j < CONSUMERS * 2; j++) {
+                manager.addTask(countDown(done));
+            }
+
+            assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            manager.destroyAllConsumers(true, true);
+
+            assertEquals(0, manager.getConsumerCount());
+            assertTrue(Thread.activeCount() <= threads);
+        }
+    }
+
+    @Test
+    public void testRejectPolicy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<SimpleTaskConsumerManager.Task> rejected = new AtomicReference<>();
+        final SimpleTaskConsumerManager manager = blockedManager(
+                SimpleTaskConsumerManager.POLICY_REJECT,
+                new SimpleTaskConsumerManager.RejectionCallback() {
+                    @Override
+                    public void onTaskRejected(final SimpleTaskConsumerManager.Task task) {
+                        rejected.set(task);
+                    }
+                }, release);
+        final SimpleTaskConsumerManager.TaskHandle queued =
+                manager.addTask(countDown(new CountDownLatch(1)));
+        final SimpleTaskConsumerManager.Task task = countDown(new CountDownLatch(1));
+        final SimpleTaskConsumerManager.TaskHandle newest = manager.addTask(task);
+
+        assertTrue(newest.isCancelled());
+        assertSame(task, rejected.get());
+        assertEquals(1, manager.getRejectedCount());
+        assertEquals(2, manager.getAcceptedCount());
+
+        release.countDown();
+        manager.destroyAllConsumers(true, true);
+        assertTrue(queued.isDone());
+    }
+
+    @Test
+    public void testSharedManagerKeepsThreadsBounded() throws InterruptedException {
+        final SimpleTaskConsumerManager manager = new SimpleTaskConsumerManager(1);
+        final CountDownLatch done = new CountDownLatch(RECREATIONS);
+        final int threads = Thread.activeCount();
+
+        // A process-wide manager, such as the launch statistics writer, used by each activity.
+        for (int i = 0; i < RECREATIONS; i++) {
+            manager.addTask(countDown(done));
+
+            assertTrue(manager.getConsumerCount() <= 1);
+            assertTrue(Thread.activeCount() <= threads + 1);
+        }
+
+        assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        manager.destroyAllConsumers(true, true);
+        assertEquals(0, manager.getConsumerCount());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015-2017 Hayai Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hayaisoftware.launcher.threading;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the threads of the {@link TaskScheduler}.
+ */
+public class TaskSchedulerTest {
+
+    /**
+     * The number of times the launcher activity is recreated.
+     */
+    private static final int RECREATIONS = 500;
+
+    private static final long SHORT_IDLE_TIMEOUT_MILLIS = 100L;
+
+    private static final long WAIT_MILLIS = 5000L;
+
+    private static final int WORKERS = 4;
+
+    /**
+     * This method waits until no thread of a scheduler is running.
+     *
+     * @param scheduler The scheduler.
+     * @return {@code true} if the threads of the scheduler retired in time.
+     */
+    private static boolean awaitRetirement(final TaskScheduler scheduler)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+
+        while (scheduler.getRunningCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        return scheduler.getRunningCount() == 0;
+    }
+
+    @Test
+    public void testExternalTasksRunInSubmissionOrder() throws InterruptedException {
+        final TaskScheduler scheduler = new TaskScheduler(1, SHORT_IDLE_TIMEOUT_MILLIS);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(RECREATIONS);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        // Hold the only worker until every task is queued.
+        scheduler.submit(new AwaitTask(blocked), TaskScheduler.LANE_UI_CRITICAL);
+        for (int i = 0; i < RECREATIONS; i++) {
+            scheduler.submit(new RecordTask(order, i, done), TaskScheduler.LANE_UI_CRITICAL);
+        }
+        blocked.countDown();
+
+        assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < RECREATIONS; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testIdleWorkersRetire() throws InterruptedException {
+        final TaskScheduler scheduler = new TaskScheduler(WORKERS, SHORT_IDLE_TIMEOUT_MILLIS);
+
+        for (int round = 0; round < 2; round++) {
+            final CountDownLatch done = new CountDownLatch(WORKERS * 4);
+
+            for (int i = 0; i < WORKERS * 4; i++) {
+                scheduler.submit(new CountDownTask(done), TaskScheduler.LANE_PREFETCH);
+            }
+
+            // The workers retire, and are started again by the next round.
+            assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            assertTrue(awaitRetirement(scheduler));
+        }
+    }
+
+    @Test
+    public void testRecreationsKeepThreadsBounded() throws InterruptedException {
+        final TaskScheduler scheduler = new TaskScheduler(WORKERS, WAIT_MILLIS);
+        final CountDownLatch done = new CountDownLatch(RECREATIONS * 3);
+        final int threads = Thread.activeCount();
+
+        for (int i = 0; i < RECREATIONS; i++) {
+            // What each new activity submits: a chunk of launchables, icons and a reconcile.
+            scheduler.submit(new CountDownTask(done), TaskScheduler.LANE_UI_CRITICAL);
+            scheduler.submit(new CountDownTask(done), TaskScheduler.LANE_PREFETCH);
+            scheduler.submit(new CountDownTask(done), TaskScheduler.LANE_BACKGROUND);
+
+            assertTrue(scheduler.getRunningCount() <= WORKERS);
+            assertTrue(Thread.activeCount() <= threads + WORKERS);
+        }
+
+        assertTrue(done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(Thread.activeCount() <= threads + WORKERS);
+    }
+
+    private static final class AwaitTask implements SimpleTaskConsumerManager.Task {
+
+        private final CountDownLatch mLatch;
+
+        private AwaitTask(final CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        public boolean doTask() {
+            try {
+                mLatch.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return true;
+        }
+    }
+
+    private static final class CountDownTask implements SimpleTaskConsumerManager.Task {
+
+        private final CountDownLatch mLatch;
+
+        private CountDownTask(final CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        public boolean doTask() {
+            mLatch.countDown();
+
+            return true;
+        }
+    }
+
+    private static final class RecordTask implements SimpleTaskConsumerManager.Task {
+
+        private final CountDownLatch mLatch;
+
+        private final List<Integer> mOrder;
+
+        private final int mValue;
+
+        private RecordTask(final List<Integer> order, final int value,
+                final CountDownLatch latch) {
+            mLatch = latch;
+            mOrder = order;
+            mValue = value;
+        }
+
+        @Override
+        public boolean doTask() {
+            mOrder.add(mValue);
+            mLatch.countDown();
+
+            return true;
+        }
+    }
+}